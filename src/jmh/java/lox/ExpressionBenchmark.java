@@ -0,0 +1,32 @@
+package lox;
+
+import org.openjdk.jmh.annotations.Param;
+
+// INFO: the phases on programs that are mostly long expressions, every
+// binary operator at every precedence level, unary operators, groupings
+// and nested calls, so "parse" measures the expression parser more than
+// the statements around it.
+public class ExpressionBenchmark extends PhaseBenchmark {
+	@Param({"100", "1000"})
+	public int lines;
+
+	@Override
+	String source() {
+		return generate(lines);
+	}
+
+	static String generate(int lines) {
+		StringBuilder source = new StringBuilder();
+		source.append("var a = 1;\nvar b = 2;\nvar c = 3;\nvar d = 4;\n");
+		source.append("fun g(x, y) {\n\treturn x * y + x - y / 2;\n}\n");
+		for (int n = 0; n < lines; n++) {
+			source.append("var e").append(n).append(" = ");
+			source.append("(a + b * ").append(n).append(" - c / 4 < d or !(a == b)");
+			source.append(" and -c >= 1) == (g(g(a, b), c - 1) > ").append(n);
+			source.append(" and a * b + c * d - a / d <= -(b - a) * ").append(n);
+			source.append(" or c != d);\n");
+			source.append("a = b = a + (c - d) * (a + b) / (c + d) - -b;\n");
+		}
+		return source.toString();
+	}
+}
@@ -0,0 +1,40 @@
+package lox;
+
+import org.openjdk.jmh.annotations.Param;
+
+// INFO: the phases on generated programs of growing size, so the cost
+// per line of source can be read off the results. Every unit is a
+// function with locals, a loop, a branch and a nested closure, followed
+// by a call to it and a string concatenation.
+public class GeneratedBenchmark extends PhaseBenchmark {
+	@Param({"10", "100", "1000"})
+	public int functions;
+
+	@Override
+	String source() {
+		return generate(functions);
+	}
+
+	static String generate(int functions) {
+		StringBuilder source = new StringBuilder();
+		for (int n = 0; n < functions; n++) {
+			source.append("// unit ").append(n).append('\n');
+			source.append("fun f").append(n).append("(a, b) {\n");
+			source.append("\tvar sum = 0;\n");
+			source.append("\tfor (var i = 0; i < 10; i = i + 1) {\n");
+			source.append("\t\tif (i > a and b != nil) sum = sum + i * b;\n");
+			source.append("\t\telse sum = sum - 1;\n");
+			source.append("\t}\n");
+			source.append("\tfun scale(x) {\n");
+			source.append("\t\treturn x * b;\n");
+			source.append("\t}\n");
+			source.append("\treturn scale(sum) + a / 2;\n");
+			source.append("}\n");
+			source.append("var v").append(n).append(" = f").append(n)
+				.append('(').append(n % 7).append(", 3);\n");
+			source.append("var s").append(n).append(" = \"unit\" + \"")
+				.append(n).append("\";\n");
+		}
+		return source.toString();
+	}
+}
@@ -0,0 +1,93 @@
+package lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// INFO: times each phase of running a program on its own. The input of
+// a phase is prepared once by running the phases before it, so only
+// the phase itself is measured. Subclasses pick the source code.
+// Run with "-prof gc" to get the allocation rate of every phase too.
+// The forks scan with the Vector API, "-jvmArgsAppend -Dlox.simd=false"
+// measures the scalar scanner instead.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public abstract class PhaseBenchmark {
+	private String source;
+	private TokenBuffer tokens;
+	private List<Stmt> statements;
+	private Interpreter interpreter;
+
+	private PrintStream out;
+	private PrintStream err;
+
+	abstract String source() throws Exception;
+
+	@Setup(Level.Trial)
+	public void prepare() throws Exception {
+		source = source();
+		tokens = new Scanner(source).scanTokens();
+		statements = new Parser(tokens).parse();
+		if (Lox.hadError) {
+			throw new IllegalStateException("The benchmark input doesn't parse.");
+		}
+		new Resolver().resolve(statements);
+		// the types Lox infers before the interpreter runs
+		new TypeInference().infer(statements);
+		interpreter = new Interpreter();
+
+		// the programs print, that would only measure the terminal
+		out = System.out;
+		err = System.err;
+		PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+		System.setOut(nowhere);
+		System.setErr(nowhere);
+	}
+
+	@TearDown(Level.Trial)
+	public void restore() {
+		System.setOut(out);
+		System.setErr(err);
+	}
+
+	@Benchmark
+	public TokenBuffer scan() {
+		return new Scanner(source).scanTokens();
+	}
+
+	@Benchmark
+	public List<Stmt> parse() {
+		return new Parser(tokens).parse();
+	}
+
+	@Benchmark
+	public List<Stmt> resolve() {
+		// resolving again stores the same depths and slots
+		new Resolver().resolve(statements);
+		return statements;
+	}
+
+	@Benchmark
+	public Interpreter interpret() {
+		interpreter.interpret(statements);
+		return interpreter;
+	}
+}
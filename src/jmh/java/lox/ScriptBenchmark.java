@@ -0,0 +1,24 @@
+package lox;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.openjdk.jmh.annotations.Param;
+
+// INFO: the phases on the example programs. They are read from the
+// lox_scripts directory of the working directory, another one can be
+// given with -Dlox.scripts=<dir>. closures.lox and functions.lox are
+// left out, they stop at a runtime error halfway through and the
+// interpret benchmark would only time their first half.
+public class ScriptBenchmark extends PhaseBenchmark {
+	@Param({"basics.lox", "control_flow.lox", "loop.lox", "recursion.lox"})
+	public String script;
+
+	@Override
+	String source() throws Exception {
+		String directory = System.getProperty("lox.scripts", "lox_scripts");
+		byte[] bytes = Files.readAllBytes(Paths.get(directory, script));
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
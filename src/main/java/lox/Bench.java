@@ -0,0 +1,262 @@
+package lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// INFO: "jlox bench" runs the programs of the bench corpus, each
+// several times in each of a few JVMs it starts, on the engine picked
+// by the usual options. The first runs of a JVM only warm the JIT up,
+// the others are timed. The best time of every program is compared
+// with the one recorded in the baseline file for the same options, and
+// the command fails when a program got slower than the threshold
+// allows. Noise only ever adds time, so the best run changes far less
+// from one bench to the next than the median does, and a JVM whose JIT
+// happened to compile the engine worse than usual is made up for by
+// the others. "--save" records the best times as the new baseline
+// instead.
+final class Bench {
+	private static final String CORPUS = "bench";
+
+	private int warmup = 10;
+	private int runs = 10;
+	// JVMs the runs of a program are repeated in. 0 runs them in this
+	// JVM, and prints the times for the bench that started it.
+	private int forks = 3;
+	// percent the best time may grow over the baseline, above how much
+	// it changes between two benches on a busy machine
+	private double threshold = 50;
+	private Path baseline = Paths.get(CORPUS, "baseline.txt");
+	private boolean save = false;
+	private final List<Path> programs = new ArrayList<>();
+
+	static void main(String[] args) throws IOException {
+		Bench bench = new Bench();
+		for (String arg : args) {
+			bench.option(arg);
+		}
+		System.exit(bench.run());
+	}
+
+	private void option(String arg) {
+		try {
+			if (Lox.option(arg)) {
+				return;
+			} else if (arg.startsWith("--warmup=")) {
+				warmup = Integer.parseInt(value(arg));
+			} else if (arg.startsWith("--runs=")) {
+				runs = Integer.parseInt(value(arg));
+			} else if (arg.startsWith("--forks=")) {
+				forks = Integer.parseInt(value(arg));
+			} else if (arg.startsWith("--threshold=")) {
+				threshold = Double.parseDouble(value(arg));
+			} else if (arg.startsWith("--baseline=")) {
+				baseline = Paths.get(value(arg));
+			} else if (arg.equals("--save")) {
+				save = true;
+			} else if (arg.startsWith("-")) {
+				Lox.usage();
+			} else {
+				programs.add(Paths.get(arg));
+			}
+		} catch (NumberFormatException error) {
+			Lox.usage();
+		}
+		if (warmup < 0 || runs < 1 || forks < 0) Lox.usage();
+	}
+
+	private static String value(String option) {
+		return option.substring(option.indexOf('=') + 1);
+	}
+
+	// the exit code: 0, 1 when a program regressed, 70 when one failed
+	private int run() throws IOException {
+		if (programs.isEmpty()) corpus();
+		if (forks == 0) return report();
+		Map<String, Double> best = load();
+		String options = Lox.options();
+		boolean regressed = false;
+
+		System.out.println("jlox bench " + options + ", " + warmup +
+			" warmup and " + runs + " timed runs in " + forks +
+			" JVMs, times in ms");
+		System.out.println(String.format("%-20s %10s %10s %10s %10s %10s %8s",
+			"program", "min", "median", "p90", "max", "baseline", "change"));
+
+		for (Path program : programs) {
+			String name = program.getFileName().toString();
+			long[] times = fork(program);
+			if (times == null) {
+				System.out.println(name + " failed, run it on its own to see why");
+				return 70;
+			}
+			double min = millis(times[0]);
+			String key = name + " " + options;
+			Double previous = best.get(key);
+
+			String change = "";
+			if (previous != null) {
+				double percent = (min / previous - 1) * 100;
+				change = String.format("%+.1f%%", percent);
+				if (!save && percent > threshold) {
+					change += "  REGRESSION";
+					regressed = true;
+				}
+			}
+			System.out.println(String.format(
+				"%-20s %10.2f %10.2f %10.2f %10.2f %10s %8s", name,
+				min, millis(percentile(times, 50)), millis(percentile(times, 90)),
+				millis(times[times.length - 1]),
+				previous == null ? "-" : String.format("%.2f", previous),
+				change));
+			best.put(key, min);
+		}
+
+		if (save) {
+			store(best);
+			System.out.println("Saved the best times to " + baseline + ".");
+			return 0;
+		}
+		if (regressed) {
+			System.out.println("A program is more than " + threshold +
+				"% slower than the baseline.");
+			return 1;
+		}
+		return 0;
+	}
+
+	// every .lox file of the corpus directory, by name
+	private void corpus() throws IOException {
+		try (DirectoryStream<Path> files =
+				Files.newDirectoryStream(Paths.get(CORPUS), "*.lox")) {
+			for (Path file : files) programs.add(file);
+		}
+		programs.sort(null);
+	}
+
+	// in a fork, the times of every program on a line of its own
+	private int report() throws IOException {
+		for (Path program : programs) {
+			long[] times = measure(program);
+			if (times == null) return 70;
+			StringBuilder line = new StringBuilder();
+			for (long time : times) line.append(time).append(' ');
+			System.out.println(line.toString().trim());
+		}
+		return 0;
+	}
+
+	// the sorted times of the timed runs of program in every fork, null
+	// when it has an error
+	private long[] fork(Path program) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+			.toString());
+		// e.g. --add-modules for the Vector API
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+			"lox.Lox", "bench"));
+		command.addAll(Arrays.asList(Lox.options().split(" ")));
+		command.addAll(Arrays.asList("--forks=0", "--warmup=" + warmup,
+			"--runs=" + runs, program.toString()));
+
+		long[] times = new long[forks * runs];
+		for (int fork = 0; fork < forks; fork++) {
+			Process process = new ProcessBuilder(command)
+				.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			String out = new String(process.getInputStream().readAllBytes(),
+				StandardCharsets.UTF_8).trim();
+			try {
+				if (process.waitFor() != 0) return null;
+			} catch (InterruptedException error) {
+				process.destroy();
+				throw new IOException("interrupted while timing " + program);
+			}
+			String[] fields = out.split(" ");
+			for (int i = 0; i < runs; i++) {
+				times[fork * runs + i] = Long.parseLong(fields[i]);
+			}
+		}
+		Arrays.sort(times);
+		return times;
+	}
+
+	// the sorted times of the timed runs in this JVM in nanoseconds, null
+	// when the program has an error
+	private long[] measure(Path program) throws IOException {
+		String source = new String(Files.readAllBytes(program),
+			StandardCharsets.UTF_8);
+		long[] times = new long[runs];
+
+		// the output of the programs would only time the terminal
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			for (int i = -warmup; i < runs; i++) {
+				Lox.startEngine();
+				long start = System.nanoTime();
+				Lox.run(source);
+				long time = System.nanoTime() - start;
+				if (Lox.hadError || Lox.hadRuntimeError) return null;
+				if (i >= 0) times[i] = time;
+			}
+		} finally {
+			System.setOut(out);
+		}
+		Arrays.sort(times);
+		return times;
+	}
+
+	// nearest rank
+	private static long percentile(long[] sorted, int percent) {
+		int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	// INFO: the baseline has a line "<program> <options> <best>" per
+	// program and set of options, lines starting with # are comments
+	private Map<String, Double> load() throws IOException {
+		Map<String, Double> best = new LinkedHashMap<>();
+		if (!Files.exists(baseline)) return best;
+		for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			int last = line.lastIndexOf(' ');
+			try {
+				best.put(line.substring(0, last),
+					Double.parseDouble(line.substring(last + 1)));
+			} catch (NumberFormatException | StringIndexOutOfBoundsException error) {
+				throw new IOException(baseline + ": bad line \"" + line + "\"");
+			}
+		}
+		return best;
+	}
+
+	private void store(Map<String, Double> best) throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add("# jlox bench baseline: program, options, best time in ms");
+		lines.add("# only comparable on the machine that recorded it, update");
+		lines.add("# it with \"jlox bench [options] --save\"");
+		for (Map.Entry<String, Double> time : best.entrySet()) {
+			lines.add(time.getKey() + " " +
+				String.format(Locale.ROOT, "%.2f", time.getValue()));
+		}
+		Files.write(baseline, lines, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,14 @@
+package lox;
+
+// INFO: a local variable captured by a closure. The frame declaring it
+// and every closure using it share the same Cell, so an assignment on
+// either side is seen by all of them. Locals nothing captures are
+// stored in the frame as they are. Global variables are kept in Cells
+// as well, one for each name, see Environment.
+final class Cell {
+	Object value;
+
+	Cell(Object value) {
+		this.value = value;
+	}
+}
@@ -0,0 +1,58 @@
+package lox;
+
+// INFO: the searches the Scanner runs over long stretches of characters
+// (comments, string literals and blanks), a char at a time. When the
+// JVM has the Vector API, VectorCharScan does the same searches many
+// chars at a time, get() picks which one the Scanner uses. Every search
+// covers chars[from] up to but not including chars[to].
+class CharScan {
+	private static final CharScan INSTANCE = pick();
+
+	static CharScan get() {
+		return INSTANCE;
+	}
+
+	private static CharScan pick() {
+		// the Vector API is an incubator module, it's only there when the
+		// JVM runs with "--add-modules jdk.incubator.vector".
+		// "-Dlox.simd=false" keeps the scalar searches anyway.
+		boolean vectors = ModuleLayer.boot()
+			.findModule("jdk.incubator.vector").isPresent();
+		if (vectors && !"false".equals(System.getProperty("lox.simd"))) {
+			try {
+				return (CharScan)Class.forName("lox.VectorCharScan")
+					.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError error) {
+				// fall back to the scalar searches
+			}
+		}
+		return new CharScan();
+	}
+
+	// the index of the first c, to when there is none
+	int indexOf(char[] chars, int from, int to, char c) {
+		for (int i = from; i < to; i++) {
+			if (chars[i] == c) return i;
+		}
+		return to;
+	}
+
+	// how many times c occurs
+	int count(char[] chars, int from, int to, char c) {
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if (chars[i] == c) count++;
+		}
+		return count;
+	}
+
+	// the index of the first char that isn't a space, tab or carriage
+	// return, to when there is none
+	int skipBlanks(char[] chars, int from, int to) {
+		for (int i = from; i < to; i++) {
+			char c = chars[i];
+			if (c != ' ' && c != '\t' && c != '\r') return i;
+		}
+		return to;
+	}
+}
@@ -0,0 +1,54 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// INFO: a chunk is the compiled bytecode of one function, the source
+// line of every byte (for runtime errors) and its constant pool.
+// While compiling it grows, seal() trims it to its final size.
+class Chunk {
+	byte[] code = new byte[64];
+	int[] lines = new int[64];
+	int count = 0;
+	Object[] constants;
+	// numeric constants, see VM.NUMBER
+	double[] numbers;
+
+	private final List<Object> constantList = new ArrayList<>();
+	private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+	void write(int b, int line) {
+		if (count == code.length) {
+			code = Arrays.copyOf(code, count * 2);
+			lines = Arrays.copyOf(lines, count * 2);
+		}
+		code[count] = (byte)b;
+		lines[count] = line;
+		count++;
+	}
+
+	// numbers and strings are deduplicated, functions never compare equal
+	int addConstant(Object value) {
+		Integer index = constantIndex.get(value);
+		if (index != null) return index;
+		constantList.add(value);
+		constantIndex.put(value, constantList.size() - 1);
+		return constantList.size() - 1;
+	}
+
+	void seal() {
+		code = Arrays.copyOf(code, count);
+		lines = Arrays.copyOf(lines, count);
+		constants = constantList.toArray();
+		numbers = new double[constants.length];
+		for (int i = 0; i < constants.length; i++) {
+			if (constants[i] instanceof Double) {
+				numbers[i] = (double)constants[i];
+				constants[i] = VM.NUMBER;
+			}
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// INFO: just enough of a JVM class file assembler for JvmCompiler. It
+// writes version 49 class files, which the verifier checks by type
+// inference, so no StackMapTable has to be computed for branches.
+class ClassWriter {
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	private static final int VERSION = 49;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> poolIndex = new HashMap<>();
+	private int poolCount = 1;
+
+	private final int thisClass;
+	private final int superClass;
+	private final List<Integer> interfaces = new ArrayList<>();
+	private final List<byte[]> fields = new ArrayList<>();
+	private final List<byte[]> methods = new ArrayList<>();
+
+	ClassWriter(String name, String superName, String... interfaceNames) {
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+		for (String interfaceName : interfaceNames) {
+			interfaces.add(classRef(interfaceName));
+		}
+	}
+
+	// ---- constant pool -----------------------------------------------
+
+	private int constant(String key, int tag, byte[] content) {
+		Integer index = poolIndex.get(key);
+		if (index != null) return index;
+		try {
+			poolOut.writeByte(tag);
+			poolOut.write(content);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		poolIndex.put(key, poolCount);
+		return poolCount++;
+	}
+
+	int utf8(String value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			new DataOutputStream(bytes).writeUTF(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return constant("U" + value, 1, bytes.toByteArray());
+	}
+
+	int classRef(String name) {
+		return constant("C" + name, 7, u2(utf8(name)));
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return constant("N" + name + " " + descriptor, 12,
+			u2u2(utf8(name), utf8(descriptor)));
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return constant("F" + owner + "." + name + descriptor, 9,
+			u2u2(classRef(owner), nameAndType(name, descriptor)));
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return constant("M" + owner + "." + name + descriptor, 10,
+			u2u2(classRef(owner), nameAndType(name, descriptor)));
+	}
+
+	int interfaceMethodRef(String owner, String name, String descriptor) {
+		return constant("I" + owner + "." + name + descriptor, 11,
+			u2u2(classRef(owner), nameAndType(name, descriptor)));
+	}
+
+	private static byte[] u2(int value) {
+		return new byte[] { (byte)(value >> 8), (byte)value };
+	}
+
+	private static byte[] u2u2(int a, int b) {
+		return new byte[] {
+			(byte)(a >> 8), (byte)a, (byte)(b >> 8), (byte)b
+		};
+	}
+
+	// ---- members -----------------------------------------------------
+
+	void field(int access, String name, String descriptor) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		fields.add(bytes.toByteArray());
+	}
+
+	void method(int access, String name, String descriptor, Code code) {
+		code.finish();
+		int codeName = utf8("Code");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(1);
+			out.writeShort(codeName);
+			out.writeInt(12 + code.length());
+			out.writeShort(code.maxStack);
+			out.writeShort(code.maxLocals);
+			out.writeInt(code.length());
+			out.write(code.bytes.toByteArray());
+			out.writeShort(0);
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		methods.add(bytes.toByteArray());
+	}
+
+	byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolCount);
+			out.write(pool.toByteArray());
+			out.writeShort(ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.size());
+			for (int index : interfaces) out.writeShort(index);
+			writeMembers(out, fields);
+			writeMembers(out, methods);
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeMembers(DataOutputStream out, List<byte[]> members)
+			throws IOException {
+		out.writeShort(members.size());
+		for (byte[] member : members) out.write(member);
+	}
+
+	// thrown when a method doesn't fit the limits of the class file
+	// format, the caller gives up on compiling it
+	static class TooLarge extends RuntimeException {
+		TooLarge() {
+			super(null, null, false, false);
+		}
+	}
+
+	// ---- bytecode ----------------------------------------------------
+
+	static class Label {
+		private int position = -1;
+		private final List<Integer> branches = new ArrayList<>();
+	}
+
+	// INFO: the bytecode of one method. Every emit takes the change it
+	// makes to the operand stack so max_stack falls out of emitting.
+	// Callers only branch between points of equal stack depth.
+	static class Code {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private byte[] code = null;
+		private final List<Label> labels = new ArrayList<>();
+		private int stack = 0;
+		int maxStack = 0;
+		int maxLocals;
+
+		Code(int maxLocals) {
+			this.maxLocals = maxLocals;
+		}
+
+		int length() {
+			return bytes.size();
+		}
+
+		void op(int opcode, int stackChange) {
+			bytes.write(opcode);
+			adjust(stackChange);
+		}
+
+		void op(int opcode, int operand, int stackChange) {
+			bytes.write(opcode);
+			bytes.write(operand >> 8);
+			bytes.write(operand);
+			adjust(stackChange);
+		}
+
+		void invokeInterface(int method, int argumentSlots, int stackChange) {
+			op(0xb9, method, stackChange);
+			bytes.write(argumentSlots);
+			bytes.write(0);
+		}
+
+		void pushInt(int value) {
+			if (value >= -1 && value <= 5) {
+				op(0x03 + value, 1);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				bytes.write(0x10);
+				bytes.write(value);
+				adjust(1);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				op(0x11, value, 1);
+			} else {
+				throw new TooLarge();
+			}
+		}
+
+		void load(int local) {
+			local(0x19, local, 1);
+		}
+
+		void store(int local) {
+			local(0x3a, local, -1);
+		}
+
+		private void local(int opcode, int local, int stackChange) {
+			if (local > 0xffff) throw new TooLarge();
+			if (local > 0xff) {
+				bytes.write(0xc4);
+				op(opcode, local, stackChange);
+			} else {
+				bytes.write(opcode);
+				bytes.write(local);
+				adjust(stackChange);
+			}
+			maxLocals = Math.max(maxLocals, local + 1);
+		}
+
+		void jump(int opcode, Label label, int stackChange) {
+			label.branches.add(bytes.size());
+			op(opcode, 0, stackChange);
+			if (!labels.contains(label)) labels.add(label);
+		}
+
+		void bind(Label label) {
+			label.position = bytes.size();
+			if (!labels.contains(label)) labels.add(label);
+		}
+
+		private void adjust(int stackChange) {
+			stack += stackChange;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		// patches the branch offsets now that every label is bound
+		private void finish() {
+			if (code != null) return;
+			code = bytes.toByteArray();
+			if (code.length > 0xffff) throw new TooLarge();
+			for (Label label : labels) {
+				for (int branch : label.branches) {
+					int offset = label.position - branch;
+					if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+						throw new TooLarge();
+					}
+					code[branch + 1] = (byte)(offset >> 8);
+					code[branch + 2] = (byte)offset;
+				}
+			}
+			bytes.reset();
+			bytes.write(code, 0, code.length);
+		}
+	}
+}
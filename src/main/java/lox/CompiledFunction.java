@@ -0,0 +1,8 @@
+package lox;
+
+// INFO: a Lox function body compiled to JVM bytecode by JvmCompiler,
+// implemented by the hidden class generated for it
+interface CompiledFunction {
+	// the arguments are in the first slots of frame
+	Object invoke(Interpreter interpreter, Cell[] upvalues, Object[] frame);
+}
@@ -0,0 +1,499 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// INFO: turns the resolved AST into bytecode for the VM. Locals live on
+// the VM stack, so the compiler tracks which stack slot every local
+// occupies, and which locals of enclosing functions each function
+// captures as upvalues. Whether a name is global or local was already
+// decided by the Resolver (depth == -1 means global).
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	private static final int U16_MAX = 0xffff;
+
+	private final VM vm;
+	private FunctionState current = null;
+
+	Compiler(VM vm) {
+		this.vm = vm;
+	}
+
+	private static class Local {
+		final String name;
+		final int depth;
+		boolean captured = false;
+
+		Local(String name, int depth) {
+			this.name = name;
+			this.depth = depth;
+		}
+	}
+
+	private static class Upvalue {
+		final int index;
+		final boolean isLocal;
+
+		Upvalue(int index, boolean isLocal) {
+			this.index = index;
+			this.isLocal = isLocal;
+		}
+	}
+
+	private static class FunctionState {
+		final FunctionState enclosing;
+		final ObjFunction function;
+		final List<Local> locals = new ArrayList<>();
+		final List<Upvalue> upvalues = new ArrayList<>();
+		int scopeDepth = 0;
+		int stackDepth = 1;
+
+		FunctionState(FunctionState enclosing, ObjFunction function) {
+			this.enclosing = enclosing;
+			this.function = function;
+			// slot zero holds the closure being called
+			locals.add(new Local("", 0));
+		}
+	}
+
+	ObjFunction compile(List<Stmt> statements) {
+		current = new FunctionState(null, new ObjFunction(null));
+		for (Stmt statement : statements) {
+			compile(statement);
+		}
+		return endFunction(0);
+	}
+
+	private void compile(Stmt stmt) {
+		stmt.accept(this);
+	}
+
+	private void compile(Expr expr) {
+		expr.accept(this);
+	}
+
+	private ObjFunction endFunction(int line) {
+		emit(OpCode.NIL, line);
+		emit(OpCode.RETURN, line);
+		ObjFunction function = current.function;
+		function.upvalueCount = current.upvalues.size();
+		function.chunk.seal();
+		return function;
+	}
+
+	// ---- emitting ---------------------------------------------------
+
+	private Chunk chunk() {
+		return current.function.chunk;
+	}
+
+	// keeps track of how deep the operand stack can get so the VM can
+	// make room for a whole frame once per call
+	private void adjustStack(int effect) {
+		current.stackDepth += effect;
+		if (current.stackDepth > current.function.maxStack) {
+			current.function.maxStack = current.stackDepth;
+		}
+	}
+
+	private void emit(byte op, int line) {
+		chunk().write(op, line);
+		switch (op) {
+			case OpCode.CONSTANT:
+			case OpCode.NIL:
+			case OpCode.TRUE:
+			case OpCode.FALSE:
+			case OpCode.GET_LOCAL:
+			case OpCode.GET_GLOBAL:
+			case OpCode.GET_UPVALUE:
+			case OpCode.CLOSURE:
+				adjustStack(1);
+				break;
+			case OpCode.POP:
+			case OpCode.DEFINE_GLOBAL:
+			case OpCode.EQUAL:
+			case OpCode.NOT_EQUAL:
+			case OpCode.GREATER:
+			case OpCode.GREATER_EQUAL:
+			case OpCode.LESS:
+			case OpCode.LESS_EQUAL:
+			case OpCode.ADD:
+			case OpCode.SUBTRACT:
+			case OpCode.MULTIPLY:
+			case OpCode.DIVIDE:
+			case OpCode.PRINT:
+			case OpCode.CLOSE_UPVALUE:
+			case OpCode.RETURN:
+			case OpCode.POP_JUMP_IF_FALSE:
+			case OpCode.STORE_LOCAL:
+			case OpCode.STORE_GLOBAL:
+			case OpCode.STORE_UPVALUE:
+				adjustStack(-1);
+				break;
+		}
+	}
+
+	private void emitByte(int b, int line) {
+		chunk().write(b, line);
+	}
+
+	private void emitShort(int value, int line) {
+		chunk().write((value >> 8) & 0xff, line);
+		chunk().write(value & 0xff, line);
+	}
+
+	private void emitWithOperand(byte op, int operand, int line) {
+		emit(op, line);
+		emitShort(operand, line);
+	}
+
+	private int makeConstant(Object value, int line) {
+		int index = chunk().addConstant(value);
+		if (index > U16_MAX) {
+			Lox.error(line, "Too many constants in one chunk.");
+			return 0;
+		}
+		return index;
+	}
+
+	private int emitJump(byte op, int line) {
+		emit(op, line);
+		emitShort(U16_MAX, line);
+		return chunk().count - 2;
+	}
+
+	private void patchJump(int offset) {
+		// -2 to adjust for the jump offset itself
+		int jump = chunk().count - offset - 2;
+		if (jump > U16_MAX) {
+			Lox.error(lastLine(), "Too much code to jump over.");
+		}
+		chunk().code[offset] = (byte)((jump >> 8) & 0xff);
+		chunk().code[offset + 1] = (byte)(jump & 0xff);
+	}
+
+	private void emitLoop(int loopStart, int line) {
+		emit(OpCode.LOOP, line);
+		int offset = chunk().count - loopStart + 2;
+		if (offset > U16_MAX) Lox.error(line, "Loop body too large.");
+		emitShort(offset, line);
+	}
+
+	// ---- scopes and variables ----------------------------------------
+
+	private void beginScope() {
+		current.scopeDepth++;
+	}
+
+	private void endScope(int line) {
+		current.scopeDepth--;
+		List<Local> locals = current.locals;
+		while (!locals.isEmpty() &&
+				locals.get(locals.size() - 1).depth > current.scopeDepth) {
+			if (locals.get(locals.size() - 1).captured) {
+				emit(OpCode.CLOSE_UPVALUE, line);
+			} else {
+				emit(OpCode.POP, line);
+			}
+			locals.remove(locals.size() - 1);
+		}
+	}
+
+	// the value of the new local is already on top of the stack
+	private void addLocal(Token name) {
+		if (current.locals.size() > U16_MAX) {
+			Lox.error(name, "Too many local variables in function.");
+			return;
+		}
+		current.locals.add(new Local(name.lexeme, current.scopeDepth));
+	}
+
+	private static int resolveLocal(FunctionState state, Token name) {
+		for (int i = state.locals.size() - 1; i > 0; i--) {
+			if (state.locals.get(i).name.equals(name.lexeme)) return i;
+		}
+		return -1;
+	}
+
+	private static int resolveUpvalue(FunctionState state, Token name) {
+		if (state.enclosing == null) return -1;
+
+		int local = resolveLocal(state.enclosing, name);
+		if (local != -1) {
+			state.enclosing.locals.get(local).captured = true;
+			return addUpvalue(state, local, true);
+		}
+		int upvalue = resolveUpvalue(state.enclosing, name);
+		if (upvalue != -1) {
+			return addUpvalue(state, upvalue, false);
+		}
+		return -1;
+	}
+
+	private static int addUpvalue(
+			FunctionState state, int index, boolean isLocal) {
+		for (int i = 0; i < state.upvalues.size(); i++) {
+			Upvalue upvalue = state.upvalues.get(i);
+			if (upvalue.index == index && upvalue.isLocal == isLocal) {
+				return i;
+			}
+		}
+		state.upvalues.add(new Upvalue(index, isLocal));
+		return state.upvalues.size() - 1;
+	}
+
+	// emits the access of a resolved variable, picking the local, upvalue
+	// or global flavor of the instruction. Depth comes from the Resolver
+	// and tells apart globals from locals and upvalues.
+	private void variable(Token name, int depth,
+			byte localOp, byte upvalueOp, byte globalOp) {
+		if (depth >= 0) {
+			int local = resolveLocal(current, name);
+			if (local != -1) {
+				emitWithOperand(localOp, local, name.line);
+				return;
+			}
+			emitWithOperand(upvalueOp, resolveUpvalue(current, name),
+				name.line);
+			return;
+		}
+		emitWithOperand(globalOp, vm.globalIndex(name.lexeme), name.line);
+	}
+
+	private void defineVariable(Token name) {
+		if (current.scopeDepth > 0) {
+			addLocal(name);
+		} else {
+			emitWithOperand(OpCode.DEFINE_GLOBAL,
+				vm.globalIndex(name.lexeme), name.line);
+		}
+	}
+
+	// ---- statements --------------------------------------------------
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		beginScope();
+		for (Stmt statement : stmt.statements) {
+			compile(statement);
+		}
+		endScope(lastLine());
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		// an assignment statement doesn't need to leave its value behind
+		if (stmt.expression instanceof Expr.Assign) {
+			Expr.Assign assign = (Expr.Assign)stmt.expression;
+			compile(assign.value);
+			variable(assign.name, assign.depth, OpCode.STORE_LOCAL,
+				OpCode.STORE_UPVALUE, OpCode.STORE_GLOBAL);
+			return null;
+		}
+		compile(stmt.expression);
+		emit(OpCode.POP, lastLine());
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Stmt.Function stmt) {
+		// a local function is in scope inside its own body
+		if (current.scopeDepth > 0) addLocal(stmt.name);
+
+		FunctionState enclosing = current;
+		current = new FunctionState(enclosing,
+			new ObjFunction(stmt.name.lexeme));
+		current.function.arity = stmt.params.size();
+		beginScope();
+		for (Token param : stmt.params) {
+			adjustStack(1);
+			addLocal(param);
+		}
+		for (Stmt statement : stmt.body) {
+			compile(statement);
+		}
+		List<Upvalue> upvalues = current.upvalues;
+		ObjFunction function = endFunction(lastLine());
+		current = enclosing;
+
+		// for a local function the closure lands in the slot claimed above
+		emitWithOperand(OpCode.CLOSURE,
+			makeConstant(function, stmt.name.line), stmt.name.line);
+		for (Upvalue upvalue : upvalues) {
+			emitByte(upvalue.isLocal ? 1 : 0, stmt.name.line);
+			emitShort(upvalue.index, stmt.name.line);
+		}
+		if (current.scopeDepth == 0) {
+			emitWithOperand(OpCode.DEFINE_GLOBAL,
+				vm.globalIndex(stmt.name.lexeme), stmt.name.line);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		compile(stmt.condition);
+		int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE, lastLine());
+		compile(stmt.thenBranch);
+		if (stmt.elseBranch == null) {
+			patchJump(thenJump);
+			return null;
+		}
+		int elseJump = emitJump(OpCode.JUMP, lastLine());
+		patchJump(thenJump);
+		compile(stmt.elseBranch);
+		patchJump(elseJump);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		compile(stmt.expression);
+		emit(OpCode.PRINT, lastLine());
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.value != null) {
+			compile(stmt.value);
+		} else {
+			emit(OpCode.NIL, stmt.keyword.line);
+		}
+		emit(OpCode.RETURN, stmt.keyword.line);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		if (stmt.initializer != null) {
+			compile(stmt.initializer);
+		} else {
+			emit(OpCode.NIL, stmt.name.line);
+		}
+		defineVariable(stmt.name);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(Stmt.While stmt) {
+		int loopStart = chunk().count;
+		compile(stmt.condition);
+		int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE, lastLine());
+		compile(stmt.body);
+		emitLoop(loopStart, lastLine());
+		patchJump(exitJump);
+		return null;
+	}
+
+	// ---- expressions -------------------------------------------------
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr) {
+		compile(expr.value);
+		variable(expr.name, expr.depth, OpCode.SET_LOCAL,
+			OpCode.SET_UPVALUE, OpCode.SET_GLOBAL);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr) {
+		compile(expr.left);
+		compile(expr.right);
+		int line = expr.operator.line;
+		switch (expr.operator.type) {
+			case BANG_EQUAL:    emit(OpCode.NOT_EQUAL, line); break;
+			case EQUAL_EQUAL:   emit(OpCode.EQUAL, line); break;
+			case GREATER:       emit(OpCode.GREATER, line); break;
+			case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, line); break;
+			case LESS:          emit(OpCode.LESS, line); break;
+			case LESS_EQUAL:    emit(OpCode.LESS_EQUAL, line); break;
+			case PLUS:          emit(OpCode.ADD, line); break;
+			case MINUS:         emit(OpCode.SUBTRACT, line); break;
+			case STAR:          emit(OpCode.MULTIPLY, line); break;
+			case SLASH:         emit(OpCode.DIVIDE, line); break;
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Expr.Call expr) {
+		compile(expr.callee);
+		for (Expr argument : expr.arguments) {
+			compile(argument);
+		}
+		emit(OpCode.CALL, expr.paren.line);
+		emitByte(expr.arguments.size(), expr.paren.line);
+		adjustStack(-expr.arguments.size());
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr) {
+		compile(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr) {
+		int line = lastLine();
+		if (expr.value == null) {
+			emit(OpCode.NIL, line);
+		} else if (expr.value == Boolean.TRUE) {
+			emit(OpCode.TRUE, line);
+		} else if (expr.value == Boolean.FALSE) {
+			emit(OpCode.FALSE, line);
+		} else {
+			emitWithOperand(OpCode.CONSTANT,
+				makeConstant(expr.value, line), line);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(Expr.Logical expr) {
+		compile(expr.left);
+		int line = expr.operator.line;
+		if (expr.operator.type == TokenType.OR) {
+			int elseJump = emitJump(OpCode.JUMP_IF_FALSE, line);
+			int endJump = emitJump(OpCode.JUMP, line);
+			patchJump(elseJump);
+			emit(OpCode.POP, line);
+			compile(expr.right);
+			patchJump(endJump);
+		} else {
+			int endJump = emitJump(OpCode.JUMP_IF_FALSE, line);
+			emit(OpCode.POP, line);
+			compile(expr.right);
+			patchJump(endJump);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr) {
+		compile(expr.right);
+		if (expr.operator.type == TokenType.BANG) {
+			emit(OpCode.NOT, expr.operator.line);
+		} else {
+			emit(OpCode.NEGATE, expr.operator.line);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr) {
+		variable(expr.name, expr.depth, OpCode.GET_LOCAL,
+			OpCode.GET_UPVALUE, OpCode.GET_GLOBAL);
+		return null;
+	}
+
+	// ---- line bookkeeping --------------------------------------------
+
+	// instructions that can't fail at runtime don't need an exact line,
+	// they reuse the line of the last byte written
+	private int lastLine() {
+		Chunk chunk = chunk();
+		return chunk.count == 0 ? 0 : chunk.lines[chunk.count - 1];
+	}
+}
@@ -0,0 +1,238 @@
+package lox;
+
+import java.util.List;
+
+import static lox.TokenType.*;
+
+// INFO: a while loop of the shape a counted for loop desugars to,
+//
+//     while (i < bound) { ...; i = i + step; }
+//
+// with "<=" as well, where i is a local no closure captures, bound a
+// number literal or such a local other than i, step a number literal,
+// and nothing in the loop but the last statement assigns i or bound.
+// The Interpreter runs it with i in a double instead of evaluating the
+// condition and the increment as expressions. The frame only gets the
+// value of i in each iteration when the body reads it, and when the
+// loop ends. The Interpreter finds out on the first run of a loop, for
+// the frame it runs in, and keeps the result in Stmt.While.counted,
+// NONE when the loop isn't counted.
+final class CountedLoop {
+	static final CountedLoop NONE = new CountedLoop(-1, false, null, 0, false);
+
+	// the index of i in the frame
+	final int counter;
+	final boolean inclusive;
+	// the Variable or Literal of the bound
+	private final Expr bound;
+	final double step;
+	// whether the body reads i
+	final boolean reads;
+
+	private CountedLoop(int counter, boolean inclusive, Expr bound,
+			double step, boolean reads) {
+		this.counter = counter;
+		this.inclusive = inclusive;
+		this.bound = bound;
+		this.step = step;
+		this.reads = reads;
+	}
+
+	// the bound when the loop starts, it stays the same while it runs
+	Object bound(Object[] frame) {
+		if (bound instanceof Expr.Literal) return ((Expr.Literal)bound).value;
+		return frame[((Expr.Variable)bound).local];
+	}
+
+	static CountedLoop of(Stmt.While loop, boolean[] cells) {
+		if (cells == null) return NONE;
+		if (!(loop.condition instanceof Expr.Binary)) return NONE;
+		Expr.Binary condition = (Expr.Binary)loop.condition;
+		TokenType operator = condition.operator.type;
+		if (operator != LESS && operator != LESS_EQUAL) return NONE;
+		int counter = local(condition.left, cells);
+		if (counter < 0) return NONE;
+
+		Expr bound = condition.right;
+		int limit = -1;
+		if (bound instanceof Expr.Literal) {
+			if (!(((Expr.Literal)bound).value instanceof Double)) return NONE;
+		} else {
+			limit = local(bound, cells);
+			if (limit < 0 || limit == counter) return NONE;
+		}
+
+		if (!(loop.body instanceof Stmt.Block)) return NONE;
+		Stmt.Block body = (Stmt.Block)loop.body;
+		List<Stmt> statements = body.statements;
+		if (body.cells != null || statements.isEmpty()) return NONE;
+		double step = step(statements.get(statements.size() - 1), counter);
+		if (Double.isNaN(step)) return NONE;
+
+		Uses uses = new Uses(counter, limit);
+		for (Stmt statement : statements.subList(0, statements.size() - 1)) {
+			statement.accept(uses);
+		}
+		if (uses.assigned) return NONE;
+		return new CountedLoop(counter, operator == LESS_EQUAL, bound, step,
+			uses.read);
+	}
+
+	// the index of the local expr reads, -1 unless it's an uncaptured
+	// local of the frame
+	private static int local(Expr expr, boolean[] cells) {
+		if (!(expr instanceof Expr.Variable)) return -1;
+		int local = ((Expr.Variable)expr).local;
+		if (local < 0 || cells[local]) return -1;
+		return local;
+	}
+
+	// the step of "i = i + step;", NaN for any other statement
+	private static double step(Stmt stmt, int counter) {
+		if (!(stmt instanceof Stmt.Expression)) return Double.NaN;
+		Expr expr = ((Stmt.Expression)stmt).expression;
+		if (!(expr instanceof Expr.Assign)) return Double.NaN;
+		Expr.Assign assign = (Expr.Assign)expr;
+		if (assign.local != counter) return Double.NaN;
+		if (!(assign.value instanceof Expr.Binary)) return Double.NaN;
+		Expr.Binary sum = (Expr.Binary)assign.value;
+		if (sum.operator.type != PLUS) return Double.NaN;
+		if (!(sum.left instanceof Expr.Variable) ||
+				((Expr.Variable)sum.left).local != counter) {
+			return Double.NaN;
+		}
+		if (!(sum.right instanceof Expr.Literal)) return Double.NaN;
+		Object step = ((Expr.Literal)sum.right).value;
+		return step instanceof Double ? (double)step : Double.NaN;
+	}
+
+	// INFO: looks for reads of the counter and assignments to the
+	// counter or the bound. Functions declared in the loop are skipped,
+	// their locals are in frames of their own and they can't reach
+	// uncaptured locals of this one.
+	private static class Uses implements Expr.Visitor<Void>,
+			Stmt.Visitor<Void> {
+		private final int counter;
+		private final int limit;
+		boolean read = false;
+		boolean assigned = false;
+
+		Uses(int counter, int limit) {
+			this.counter = counter;
+			this.limit = limit;
+		}
+
+		private void visit(List<Stmt> statements) {
+			for (Stmt statement : statements) {
+				statement.accept(this);
+			}
+		}
+
+		private void visit(Expr expr) {
+			expr.accept(this);
+		}
+
+		@Override
+		public Void visitBlockStmt(Stmt.Block stmt) {
+			visit(stmt.statements);
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Stmt.Expression stmt) {
+			visit(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitFunctionStmt(Stmt.Function stmt) {
+			return null;
+		}
+
+		@Override
+		public Void visitIfStmt(Stmt.If stmt) {
+			visit(stmt.condition);
+			stmt.thenBranch.accept(this);
+			if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Stmt.Print stmt) {
+			visit(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitReturnStmt(Stmt.Return stmt) {
+			if (stmt.value != null) visit(stmt.value);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Stmt.Var stmt) {
+			if (stmt.initializer != null) visit(stmt.initializer);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStmt(Stmt.While stmt) {
+			visit(stmt.condition);
+			stmt.body.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr) {
+			visit(expr.value);
+			if (expr.local == counter || (limit >= 0 && expr.local == limit)) {
+				assigned = true;
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr) {
+			visit(expr.left);
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Expr.Call expr) {
+			visit(expr.callee);
+			for (Expr argument : expr.arguments) visit(argument);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr) {
+			visit(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr) {
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Expr.Logical expr) {
+			visit(expr.left);
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr) {
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr) {
+			if (expr.local == counter) read = true;
+			return null;
+		}
+	}
+}
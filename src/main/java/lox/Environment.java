@@ -5,40 +5,73 @@ import java.util.Map;
 
 class Environment {
 	final Environment ENCLOSING;
-	private final Map<String, Object> VALUES = new HashMap<>();
+	// INFO: only the global environment looks variables up by name,
+	// local scopes store their variables in SLOTS at the index the
+	// Resolver assigned to each declaration. Each global name gets one
+	// Cell the first time it is looked up or defined, and keeps it. A
+	// redefinition only changes what is in the Cell, so the engines can
+	// hold on to the Cell of a name and skip the lookup from then on. A
+	// name that is used before it is defined gets a Cell holding
+	// UNDEFINED.
+	private static final Object UNDEFINED = new Object();
+	private final Map<String, Cell> VALUES;
+	private final Object[] slots;
+	private int count = 0;
 
 	Environment() {
 		ENCLOSING = null;
+		VALUES = new HashMap<>();
+		slots = null;
 	}
 
-	Environment(Environment enclosing) {
+	Environment(Environment enclosing, int size) {
 		ENCLOSING = enclosing;
+		VALUES = null;
+		slots = new Object[size];
 	}
 
-	Object get(Token name) {
-		if (VALUES.containsKey(name.lexeme)) {
-			return VALUES.get(name.lexeme);
+	Cell cell(String name) {
+		Cell cell = VALUES.get(name);
+		if (cell == null) {
+			cell = new Cell(UNDEFINED);
+			VALUES.put(name, cell);
 		}
-		else if (ENCLOSING != null) return ENCLOSING.get(name);
-		throw new RuntimeError(name,
-				"Undefined variable '" + name.lexeme + "'.");
+		return cell;
+	}
+
+	Object get(Token name) {
+		return get(cell(name.lexeme), name);
+	}
+
+	// reads the global name through its Cell
+	static Object get(Cell cell, Token name) {
+		Object value = cell.value;
+		if (value == UNDEFINED) throw undefined(name);
+		return value;
 	}
 
 	void assign(Token name, Object value) {
-		if (VALUES.containsKey(name.lexeme)) {
-			VALUES.put(name.lexeme, value);
-			return;
-		}
-		else if (ENCLOSING != null) {
-			ENCLOSING.assign(name, value);
-			return;
-		}
-		throw new RuntimeError(name,
+		assign(cell(name.lexeme), name, value);
+	}
+
+	static void assign(Cell cell, Token name, Object value) {
+		if (cell.value == UNDEFINED) throw undefined(name);
+		cell.value = value;
+	}
+
+	private static RuntimeError undefined(Token name) {
+		return new RuntimeError(name,
 				"Undefined variable '" + name.lexeme + "'.");
 	}
 
 	void define(String name, Object value) {
-		VALUES.put(name, value);
+		cell(name).value = value;
+	}
+
+	// locals are defined in the same order the Resolver declared them,
+	// so the next free slot is always the one it handed out
+	void define(Object value) {
+		slots[count++] = value;
 	}
 
 	Environment ancestor(int distance) {
@@ -49,11 +82,11 @@ class Environment {
 		return environment;
 	}
 
-	Object getAt(int distance, String name) {
-		return ancestor(distance).VALUES.get(name);
+	Object getAt(int distance, int slot) {
+		return ancestor(distance).slots[slot];
 	}
 
-	void assignAt(int distance, Token name, Object value) {
-		ancestor(distance).VALUES.put(name.lexeme, value);
+	void assignAt(int distance, int slot, Object value) {
+		ancestor(distance).slots[slot] = value;
 	}
 }
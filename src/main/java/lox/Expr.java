@@ -26,6 +26,13 @@ abstract class Expr {
 
 		final Token name;
 		final Expr value;
+
+		// analysis results, filled in after parsing
+		int depth = -1;
+		int slot;
+		int local = -1;
+		int upvalue = -1;
+		Cell global;
 	}
 	static class Binary extends Expr {
 		Binary(Expr left, Token operator, Expr right) {
@@ -42,6 +49,9 @@ abstract class Expr {
 		final Expr left;
 		final Token operator;
 		final Expr right;
+
+		// analysis results, filled in after parsing
+		LoxType operands;
 	}
 	static class Call extends Expr {
 		Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -112,6 +122,9 @@ abstract class Expr {
 
 		final Token operator;
 		final Expr right;
+
+		// analysis results, filled in after parsing
+		LoxType operand;
 	}
 	static class Variable extends Expr {
 		Variable(Token name) {
@@ -124,6 +137,14 @@ abstract class Expr {
 		}
 
 		final Token name;
+
+		// analysis results, filled in after parsing
+		int depth = -1;
+		int slot;
+		int local = -1;
+		int upvalue = -1;
+		Cell global;
+		LoxType type;
 	}
 
 	abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,616 @@
+package lox;
+
+
+// INFO: executable expression nodes. Operators whose behaviour depends
+// on the operand types start out uninitialized, pick a specialization
+// from the values they see the first time they run, and fall back to
+// the generic node once a different type shows up. Each node class
+// handles exactly one operator, so there is no switch on the token
+// type left on the hot path.
+abstract class ExprNode extends Node {
+	abstract Object execute(Environment environment);
+
+	// swaps this node for the given one in the parent, which takes over
+	// the children of this one. The tree is shared by every call of a
+	// function, a recursive call can replace a node while an outer call
+	// is still running it. The outer call then finishes on the old node
+	// and leaves the tree alone.
+	final <T extends ExprNode> T replace(T node) {
+		if (!parent.replaceChild(this, node)) return node;
+		node.parent = parent;
+		node.adoptChildren();
+		return node;
+	}
+
+	// specializations override this to adopt the children they took over
+	void adoptChildren() {
+	}
+
+	static final class Literal extends ExprNode {
+		private final Object value;
+
+		Literal(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			return value;
+		}
+	}
+
+	static final class LocalRead extends ExprNode {
+		private final int depth;
+		private final int slot;
+
+		LocalRead(int depth, int slot) {
+			this.depth = depth;
+			this.slot = slot;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			return environment.getAt(depth, slot);
+		}
+	}
+
+	static final class GlobalRead extends ExprNode {
+		private final Cell global;
+		private final Token name;
+
+		GlobalRead(Environment globals, Token name) {
+			this.global = globals.cell(name.lexeme);
+			this.name = name;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			return Environment.get(global, name);
+		}
+	}
+
+	static final class LocalWrite extends ExprNode {
+		private final int depth;
+		private final int slot;
+		private ExprNode value;
+
+		LocalWrite(int depth, int slot, ExprNode value) {
+			this.depth = depth;
+			this.slot = slot;
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object result = value.execute(environment);
+			environment.assignAt(depth, slot, result);
+			return result;
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (value != oldChild) return false;
+			value = newChild;
+			return true;
+		}
+	}
+
+	static final class GlobalWrite extends ExprNode {
+		private final Cell global;
+		private final Token name;
+		private ExprNode value;
+
+		GlobalWrite(Environment globals, Token name, ExprNode value) {
+			this.global = globals.cell(name.lexeme);
+			this.name = name;
+			this.value = adopt(value);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object result = value.execute(environment);
+			Environment.assign(global, name, result);
+			return result;
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (value != oldChild) return false;
+			value = newChild;
+			return true;
+		}
+	}
+
+	static final class And extends ExprNode {
+		private ExprNode left;
+		private ExprNode right;
+
+		And(ExprNode left, ExprNode right) {
+			this.left = adopt(left);
+			this.right = adopt(right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object value = left.execute(environment);
+			if (!Interpreter.isTruthy(value)) return value;
+			return right.execute(environment);
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (left == oldChild) {
+				left = newChild;
+			} else if (right == oldChild) {
+				right = newChild;
+			} else {
+				return false;
+			}
+			return true;
+		}
+	}
+
+	static final class Or extends ExprNode {
+		private ExprNode left;
+		private ExprNode right;
+
+		Or(ExprNode left, ExprNode right) {
+			this.left = adopt(left);
+			this.right = adopt(right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object value = left.execute(environment);
+			if (Interpreter.isTruthy(value)) return value;
+			return right.execute(environment);
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (left == oldChild) {
+				left = newChild;
+			} else if (right == oldChild) {
+				right = newChild;
+			} else {
+				return false;
+			}
+			return true;
+		}
+	}
+
+	static final class Call extends ExprNode {
+		private final Token paren;
+		private ExprNode callee;
+		private final ExprNode[] arguments;
+
+		Call(Token paren, ExprNode callee, ExprNode[] arguments) {
+			this.paren = paren;
+			this.callee = adopt(callee);
+			this.arguments = arguments;
+			for (ExprNode argument : arguments) adopt(argument);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object function = callee.execute(environment);
+			Object[] values = new Object[arguments.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = arguments[i].execute(environment);
+			}
+			// node functions and natives don't use the tree-walk interpreter
+			return LoxCallable.check(paren, function, values.length)
+				.call(null, values);
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (callee == oldChild) {
+				callee = newChild;
+				return true;
+			}
+			for (int i = 0; i < arguments.length; i++) {
+				if (arguments[i] == oldChild) {
+					arguments[i] = newChild;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// ---- unary operators ---------------------------------------------
+
+	abstract static class UnaryNode extends ExprNode {
+		final Token operator;
+		ExprNode operand;
+
+		UnaryNode(Token operator, ExprNode operand) {
+			this.operator = operator;
+			this.operand = adopt(operand);
+		}
+
+		// specializations take over the operand of the node they replace,
+		// it's theirs once replace() put them in the tree
+		UnaryNode(UnaryNode node) {
+			this.operator = node.operator;
+			this.operand = node.operand;
+		}
+
+		@Override
+		final void adoptChildren() {
+			adopt(operand);
+		}
+
+		@Override
+		final boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (operand != oldChild) return false;
+			operand = newChild;
+			return true;
+		}
+	}
+
+	static final class Negate extends UnaryNode {
+		Negate(Token operator, ExprNode operand) {
+			super(operator, operand);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object value = operand.execute(environment);
+			Interpreter.checkNumberOperand(operator, value);
+			return -(double)value;
+		}
+	}
+
+	static final class NotUninitialized extends UnaryNode {
+		NotUninitialized(Token operator, ExprNode operand) {
+			super(operator, operand);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object value = operand.execute(environment);
+			if (value instanceof Boolean) {
+				replace(new NotBoolean(this));
+			} else {
+				replace(new NotGeneric(this));
+			}
+			return !Interpreter.isTruthy(value);
+		}
+	}
+
+	static final class NotBoolean extends UnaryNode {
+		NotBoolean(UnaryNode node) {
+			super(node);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object value = operand.execute(environment);
+			if (value instanceof Boolean) return !(boolean)value;
+			replace(new NotGeneric(this));
+			return !Interpreter.isTruthy(value);
+		}
+	}
+
+	static final class NotGeneric extends UnaryNode {
+		NotGeneric(UnaryNode node) {
+			super(node);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			return !Interpreter.isTruthy(operand.execute(environment));
+		}
+	}
+
+	// ---- binary operators --------------------------------------------
+
+	abstract static class BinaryNode extends ExprNode {
+		final Token operator;
+		ExprNode left;
+		ExprNode right;
+
+		BinaryNode(Token operator, ExprNode left, ExprNode right) {
+			this.operator = operator;
+			this.left = adopt(left);
+			this.right = adopt(right);
+		}
+
+		// specializations take over the operands of the node they replace,
+		// they're theirs once replace() put them in the tree
+		BinaryNode(BinaryNode node) {
+			this.operator = node.operator;
+			this.left = node.left;
+			this.right = node.right;
+		}
+
+		@Override
+		final void adoptChildren() {
+			adopt(left);
+			adopt(right);
+		}
+
+		@Override
+		final boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (left == oldChild) {
+				left = newChild;
+			} else if (right == oldChild) {
+				right = newChild;
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		final RuntimeError numberOperands() {
+			return Interpreter.numberOperands(operator);
+		}
+	}
+
+	// '+' adds numbers or concatenates strings, call sites almost always
+	// see only one of the two
+	static final class AddUninitialized extends BinaryNode {
+		AddUninitialized(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				replace(new AddDouble(this));
+			} else if (a instanceof String && b instanceof String) {
+				replace(new AddString(this));
+			} else {
+				replace(new AddGeneric(this));
+			}
+			return Interpreter.add(operator, a, b);
+		}
+	}
+
+	static final class AddDouble extends BinaryNode {
+		AddDouble(BinaryNode node) {
+			super(node);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				return (double)a + (double)b;
+			}
+			replace(new AddGeneric(this));
+			return Interpreter.add(operator, a, b);
+		}
+	}
+
+	static final class AddString extends BinaryNode {
+		AddString(BinaryNode node) {
+			super(node);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof String && b instanceof String) {
+				return (String)a + (String)b;
+			}
+			replace(new AddGeneric(this));
+			return Interpreter.add(operator, a, b);
+		}
+	}
+
+	static final class AddGeneric extends BinaryNode {
+		AddGeneric(BinaryNode node) {
+			super(node);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			return Interpreter.add(operator, left.execute(environment),
+				right.execute(environment));
+		}
+	}
+
+	// the other arithmetic and comparison operators only accept numbers,
+	// so they are born specialized and any other type is an error
+	static final class Subtract extends BinaryNode {
+		Subtract(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				return (double)a - (double)b;
+			}
+			throw numberOperands();
+		}
+	}
+
+	static final class Multiply extends BinaryNode {
+		Multiply(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				return (double)a * (double)b;
+			}
+			throw numberOperands();
+		}
+	}
+
+	static final class Divide extends BinaryNode {
+		Divide(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				return (double)a / (double)b;
+			}
+			throw numberOperands();
+		}
+	}
+
+	static final class Greater extends BinaryNode {
+		Greater(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				return (double)a > (double)b;
+			}
+			throw numberOperands();
+		}
+	}
+
+	static final class GreaterEqual extends BinaryNode {
+		GreaterEqual(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				return (double)a >= (double)b;
+			}
+			throw numberOperands();
+		}
+	}
+
+	static final class Less extends BinaryNode {
+		Less(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				return (double)a < (double)b;
+			}
+			throw numberOperands();
+		}
+	}
+
+	static final class LessEqual extends BinaryNode {
+		LessEqual(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				return (double)a <= (double)b;
+			}
+			throw numberOperands();
+		}
+	}
+
+	// '==' and '!=' accept anything, they specialize on numbers and
+	// strings and negate the result for '!='
+	static final class EqualUninitialized extends BinaryNode {
+		private final boolean negate;
+
+		EqualUninitialized(Token operator, ExprNode left, ExprNode right) {
+			super(operator, left, right);
+			this.negate = operator.type == TokenType.BANG_EQUAL;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				replace(new EqualDouble(this, negate));
+			} else if (a instanceof String && b instanceof String) {
+				replace(new EqualString(this, negate));
+			} else {
+				replace(new EqualGeneric(this, negate));
+			}
+			return Interpreter.isEqual(a, b) != negate;
+		}
+	}
+
+	static final class EqualDouble extends BinaryNode {
+		private final boolean negate;
+
+		EqualDouble(BinaryNode node, boolean negate) {
+			super(node);
+			this.negate = negate;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof Double && b instanceof Double) {
+				// same comparison Double.equals() makes
+				return (Double.doubleToLongBits((double)a) ==
+					Double.doubleToLongBits((double)b)) != negate;
+			}
+			replace(new EqualGeneric(this, negate));
+			return Interpreter.isEqual(a, b) != negate;
+		}
+	}
+
+	static final class EqualString extends BinaryNode {
+		private final boolean negate;
+
+		EqualString(BinaryNode node, boolean negate) {
+			super(node);
+			this.negate = negate;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			if (a instanceof String && b instanceof String) {
+				return ((String)a).equals(b) != negate;
+			}
+			replace(new EqualGeneric(this, negate));
+			return Interpreter.isEqual(a, b) != negate;
+		}
+	}
+
+	static final class EqualGeneric extends BinaryNode {
+		private final boolean negate;
+
+		EqualGeneric(BinaryNode node, boolean negate) {
+			super(node);
+			this.negate = negate;
+		}
+
+		@Override
+		Object execute(Environment environment) {
+			Object a = left.execute(environment);
+			Object b = right.execute(environment);
+			return Interpreter.isEqual(a, b) != negate;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// INFO: replaces a call to a small function by the function's body,
+// for the Optimizer. Only functions whose body is a single
+// "return <expression>;" are inlined. The parameters are bound by
+// substituting the arguments for them, which keeps the semantics of
+// the call only while evaluating an argument more than once, later, or
+// not at all can't be observed:
+// - literal arguments can always be substituted
+// - local variables too, unless the body calls or assigns something
+//   that could change them before they are read
+// The body may only use its parameters and globals. The VM looks
+// locals up by name, so a variable of an enclosing scope moved to the
+// call site could be shadowed there.
+class Inliner implements Expr.Visitor<Expr> {
+	// bodies bigger than this stay calls
+	private static final int MAX_NODES = 24;
+
+	private final List<Expr> arguments;
+
+	private Inliner(List<Expr> arguments) {
+		this.arguments = arguments;
+	}
+
+	// the inlined body, or null when the call has to stay a call
+	static Expr inline(Stmt.Function function, List<Expr> arguments) {
+		if (function.params.size() != arguments.size()) return null;
+		if (function.body.size() != 1) return null;
+		if (!(function.body.get(0) instanceof Stmt.Return)) return null;
+		Expr body = ((Stmt.Return)function.body.get(0)).value;
+		if (body == null) return new Expr.Literal(null);
+
+		Shape shape = new Shape();
+		body.accept(shape);
+		if (shape.nodes > MAX_NODES || shape.usesEnclosingScopes) return null;
+		for (Expr argument : arguments) {
+			if (argument instanceof Expr.Literal) continue;
+			if (argument instanceof Expr.Variable &&
+					((Expr.Variable)argument).depth >= 0 &&
+					!shape.hasSideEffects) {
+				continue;
+			}
+			return null;
+		}
+		return body.accept(new Inliner(arguments));
+	}
+
+	private Expr rewrite(Expr expr) {
+		return expr.accept(this);
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		// only globals, see Shape
+		Expr.Assign assign = new Expr.Assign(expr.name, rewrite(expr.value));
+		assign.depth = expr.depth;
+		return assign;
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		return new Expr.Binary(rewrite(expr.left), expr.operator,
+			rewrite(expr.right));
+	}
+
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		List<Expr> rewritten = new ArrayList<>(expr.arguments.size());
+		for (Expr argument : expr.arguments) {
+			rewritten.add(rewrite(argument));
+		}
+		return new Expr.Call(rewrite(expr.callee), expr.paren, rewritten);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		return new Expr.Grouping(rewrite(expr.expression));
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Expr.Logical expr) {
+		return new Expr.Logical(rewrite(expr.left), expr.operator,
+			rewrite(expr.right));
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		return new Expr.Unary(expr.operator, rewrite(expr.right));
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		if (expr.depth < 0) return copy(expr);
+		// the body declares no locals, any local is a parameter
+		Expr argument = arguments.get(expr.slot);
+		if (argument instanceof Expr.Variable) {
+			return copy((Expr.Variable)argument);
+		}
+		return argument;
+	}
+
+	// every use of a parameter gets a node of its own, TypeInference
+	// annotates each of them with the type at that point
+	private static Expr.Variable copy(Expr.Variable variable) {
+		Expr.Variable copy = new Expr.Variable(variable.name);
+		copy.depth = variable.depth;
+		copy.slot = variable.slot;
+		copy.local = variable.local;
+		copy.upvalue = variable.upvalue;
+		return copy;
+	}
+
+	// what the body of a candidate does
+	private static class Shape implements Expr.Visitor<Void> {
+		int nodes = 0;
+		boolean hasSideEffects = false;
+		boolean usesEnclosingScopes = false;
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr) {
+			nodes++;
+			hasSideEffects = true;
+			// assigning a parameter can't be substituted either
+			if (expr.depth >= 0) usesEnclosingScopes = true;
+			expr.value.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr) {
+			nodes++;
+			expr.left.accept(this);
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Expr.Call expr) {
+			nodes++;
+			hasSideEffects = true;
+			expr.callee.accept(this);
+			for (Expr argument : expr.arguments) argument.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr) {
+			nodes++;
+			expr.expression.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr) {
+			nodes++;
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Expr.Logical expr) {
+			nodes++;
+			expr.left.accept(this);
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr) {
+			nodes++;
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr) {
+			nodes++;
+			if (expr.depth > 0) usesEnclosingScopes = true;
+			return null;
+		}
+	}
+}
@@ -1,35 +1,52 @@
 package lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion> {
 	final Environment globals = new Environment();
-	private final Map<Expr, Integer> locals = new HashMap<>();
-	private Environment environment = globals;
+	// INFO: the locals of the running function live in one flat frame,
+	// at the index the Resolver gave each one. cells tells which of them
+	// are captured and kept in a Cell. The locals of enclosing functions
+	// are reached through the Cells of the running closure, its
+	// upvalues. Outside of any function the frame is null, the outermost
+	// block brings its own.
+	private Object[] frame = null;
+	private boolean[] cells = null;
+	private Cell[] upvalues = null;
+	// compiles hot functions in the tiered engine, null otherwise
+	final JvmCompiler jit;
+
+	// INFO: executing a statement tells how it completed. A return
+	// doesn't throw, it leaves what it returns in returned and completes
+	// with RETURN, which every statement around it passes back up, up
+	// to LoxFunction.run(). The JVM can inline and compile that like any
+	// other branch, a throw it can't.
+	enum Completion {
+		NORMAL,
+		RETURN
+	}
+
+	// what the last return returned, or a Return naming the function
+	// and frame of its tail call
+	private Object returned = null;
 
 	Interpreter() {
-		globals.define("clock", new LoxCallable() {
-			@Override
-			public int arity() { return 0; }
-
-			@Override
-			public Object call(Interpreter interpreter,
-				List<Object> arguments) {
-				return (double)System.currentTimeMillis() / 1000.0;
-			}
+		this(false);
+	}
 
-			@Override
-			public String toString() { return "<native fn>"; }
-		});
+	Interpreter(boolean tiered) {
+		jit = tiered ? new JvmCompiler(globals) : null;
+		for (Map.Entry<String, LoxCallable> fn : Natives.ALL.entrySet()) {
+			globals.define(fn.getKey(), fn.getValue());
+		}
 	}
 
 	void interpret(List<Stmt> statements) {
 		try {
 			for (Stmt statement : statements) {
-				execute(statement);
+				// a return outside of functions ends the script
+				if (execute(statement) == Completion.RETURN) break;
 			}
 		} catch (RuntimeError error) {
 			Lox.runtimeError(error);
@@ -60,74 +77,61 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 	@Override
 	public Object visitUnaryExpr(Expr.Unary expr) {
-		Object right = evaluate(expr.right);
-
-		switch (expr.operator.type) {
-			case BANG:
-				return !isTruthy(right);
-			case MINUS:
-				checkNumberOperand(expr.operator, right);
-				return -(double)right;
+		if (expr.operator.type == TokenType.MINUS) {
+			return evaluateDouble(expr);
 		}
-		// Unreachable.
-		return null;
+		return !isTruthy(evaluate(expr.right));
 	}
 
 	@Override
 	public Object visitVariableExpr(Expr.Variable expr) {
-		return lookUpVariable(expr.name, expr);
-	}
-
-	private Object lookUpVariable(Token name, Expr expr) {
-		Integer distance = locals.get(expr);
-		if (distance != null) {
-			return environment.getAt(distance, name.lexeme);
+		if (expr.local >= 0) {
+			Object value = frame[expr.local];
+			return cells[expr.local] ? ((Cell)value).value : value;
+		} else if (expr.upvalue >= 0) {
+			return upvalues[expr.upvalue].value;
 		} else {
-			return globals.get(name);
+			expr.global = global(expr.name, expr.global);
+			return Environment.get(expr.global, expr.name);
 		}
 	}
 
-	private void checkNumberOperand(Token operator, Object operand) {
-		if (operand instanceof Double) return;
-		throw new RuntimeError(operator, "Operand must be a number.");
+	// INFO: a global variable node keeps the Cell of its name after the
+	// first lookup, which stays the Cell of that name for good, see
+	// Environment. cached is the one the node keeps, null before that.
+	private Cell global(Token name, Cell cached) {
+		return cached != null ? cached : globals.cell(name.lexeme);
 	}
 
 	@Override
 	public Object visitBinaryExpr(Expr.Binary expr) {
-		Object left = evaluate(expr.left);
-		Object right = evaluate(expr.right);
-
 		switch (expr.operator.type) {
+			case MINUS:
+			case SLASH:
+			case STAR:
+				return evaluateDouble(expr);
+			case PLUS:
+				if (expr.operands == LoxType.NUMBER ||
+						isNumeric(expr.left) && isNumeric(expr.right)) {
+					return evaluateDouble(expr);
+				}
+				if (expr.operands == LoxType.STRING) {
+					return (String)evaluate(expr.left) +
+						(String)evaluate(expr.right);
+				}
+				break;
 			case GREATER:
-			checkNumberOperands(expr.operator, left, right);
-			return (double)left > (double)right;
 			case GREATER_EQUAL:
-			checkNumberOperands(expr.operator, left, right);
-			return (double)left >= (double)right;
 			case LESS:
-			checkNumberOperands(expr.operator, left, right);
-			return (double)left < (double)right;
 			case LESS_EQUAL:
-			checkNumberOperands(expr.operator, left, right);
-			return (double)left <= (double)right;
-			case MINUS:
-			checkNumberOperands(expr.operator, left, right);
-			return (double)left - (double)right;
-			case PLUS:
-			if (left instanceof Double && right instanceof Double) {
-				return (double)left + (double)right;
-			}
-			if (left instanceof String && right instanceof String) {
-				return (String)left + (String)right;
-			}
-			throw new RuntimeError(expr.operator,
-				"Operands must be two numbers or two strings.");
-			case SLASH:
-			checkNumberOperands(expr.operator, left, right);
-			return (double)left / (double)right;
-			case STAR:
-			checkNumberOperands(expr.operator, left, right);
-			return (double)left * (double)right;
+				return compare(expr);
+		}
+
+		Object left = evaluate(expr.left);
+		Object right = evaluate(expr.right);
+
+		switch (expr.operator.type) {
+			case PLUS: return add(expr.operator, left, right);
 			case BANG_EQUAL: return !isEqual(left, right);
 			case EQUAL_EQUAL: return isEqual(left, right);
 		}
@@ -135,45 +139,207 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	// INFO: arithmetic runs on primitive doubles. Operands that are
+	// arithmetic themselves are evaluated with evaluateDouble() too, so
+	// only the outermost result of an expression like a * b + c * d
+	// gets boxed, when it escapes into a variable, an argument or a
+	// statement.
+
+	// true when the expression can only produce a number (or fail). A
+	// local TypeInference proved to hold a number is one as well, it's
+	// taken as it is, without the check.
+	private static boolean isNumeric(Expr expr) {
+		if (expr instanceof Expr.Variable) {
+			return ((Expr.Variable)expr).type == LoxType.NUMBER;
+		} else if (expr instanceof Expr.Literal) {
+			return ((Expr.Literal)expr).value instanceof Double;
+		} else if (expr instanceof Expr.Grouping) {
+			return isNumeric(((Expr.Grouping)expr).expression);
+		} else if (expr instanceof Expr.Unary) {
+			return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+		} else if (expr instanceof Expr.Binary) {
+			switch (((Expr.Binary)expr).operator.type) {
+				case MINUS:
+				case SLASH:
+				case STAR:
+					return true;
+				case PLUS:
+					return ((Expr.Binary)expr).operands == LoxType.NUMBER;
+			}
+		}
+		return false;
+	}
+
+	// evaluates a numeric expression without boxing its result
+	private double evaluateDouble(Expr expr) {
+		if (expr instanceof Expr.Literal) {
+			return (double)((Expr.Literal)expr).value;
+		} else if (expr instanceof Expr.Grouping) {
+			return evaluateDouble(((Expr.Grouping)expr).expression);
+		} else if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary)expr;
+			if (isNumeric(unary.right)) return -evaluateDouble(unary.right);
+			Object right = evaluate(unary.right);
+			checkNumberOperand(unary.operator, right);
+			return -(double)right;
+		} else if (expr instanceof Expr.Variable) {
+			return (double)evaluate(expr);
+		}
+
+		Expr.Binary binary = (Expr.Binary)expr;
+		// the left operand is only checked once the right one has been
+		// evaluated, both sides run before a type error is reported
+		boolean unboxed = isNumeric(binary.left);
+		double left = 0;
+		Object leftValue = null;
+		if (unboxed) left = evaluateDouble(binary.left);
+		else leftValue = evaluate(binary.left);
+		double right = numberOperand(binary.operator, binary.right);
+		if (!unboxed) left = number(binary.operator, leftValue);
+
+		switch (binary.operator.type) {
+			case MINUS: return left - right;
+			case PLUS: return left + right;
+			case SLASH: return left / right;
+			case STAR: return left * right;
+		}
+		// Unreachable.
+		return 0;
+	}
+
+	private boolean compare(Expr.Binary expr) {
+		boolean unboxed = isNumeric(expr.left);
+		double left = 0;
+		Object leftValue = null;
+		if (unboxed) left = evaluateDouble(expr.left);
+		else leftValue = evaluate(expr.left);
+		double right = numberOperand(expr.operator, expr.right);
+		if (!unboxed) left = number(expr.operator, leftValue);
+
+		switch (expr.operator.type) {
+			case GREATER: return left > right;
+			case GREATER_EQUAL: return left >= right;
+			case LESS: return left < right;
+			case LESS_EQUAL: return left <= right;
+		}
+		// Unreachable.
+		return false;
+	}
+
+	private double numberOperand(Token operator, Expr operand) {
+		if (isNumeric(operand)) return evaluateDouble(operand);
+		return number(operator, evaluate(operand));
+	}
+
+	private double number(Token operator, Object operand) {
+		if (operand instanceof Double) return (double)operand;
+		throw numberOperands(operator);
+	}
+
 	@Override
 	public Object visitCallExpr(Expr.Call expr) {
 		Object callee = evaluate(expr.callee);
+		LoxFunction function = function(expr, callee);
+		if (function != null) return function.run(this, frame(expr, function));
+		return call(expr, callee);
+	}
 
-		List<Object> arguments = new ArrayList<>();
-		for (Expr argument : expr.arguments) { 
-			arguments.add(evaluate(argument));
-		}
-		if (!(callee instanceof LoxCallable)) {
-			throw new RuntimeError(expr.paren,
-				"Can only call functions and classes.");
-		}
-		LoxCallable function = (LoxCallable)callee;
-		if (arguments.size() != function.arity()) {
-			throw new RuntimeError(expr.paren, "Expected " +
-				function.arity() + " arguments but got " +
-				arguments.size() + ".");
+	// INFO: a call to a Lox function evaluates its arguments right into
+	// the frame of the call, anything else gets them through the entry
+	// point for their number. Either way no argument list is built.
+
+	// the callee when it's a Lox function taking as many arguments as
+	// the call passes, null when the call has to go through call()
+	private static LoxFunction function(Expr.Call expr, Object callee) {
+		if (!(callee instanceof LoxFunction)) return null;
+		LoxFunction function = (LoxFunction)callee;
+		if (function.arity() != expr.arguments.size()) return null;
+		return function;
+	}
+
+	private Object[] frame(Expr.Call expr, LoxFunction function) {
+		Object[] frame = function.frame();
+		for (int i = 0; i < expr.arguments.size(); i++) {
+			frame[i] = evaluate(expr.arguments.get(i));
 		}
-		return function.call(this, arguments);
+		return frame;
 	}
 
-	private void checkNumberOperands(Token operator, Object left, Object right) {
-		if (left instanceof Double && right instanceof Double) return;
-		throw new RuntimeError(operator, "Operands must be numbers.");
+	private Object call(Expr.Call expr, Object callee) {
+		List<Expr> arguments = expr.arguments;
+		switch (arguments.size()) {
+			case 0:
+				return LoxCallable.check(expr.paren, callee, 0)
+					.call0(this);
+			case 1: {
+				Object a = evaluate(arguments.get(0));
+				return LoxCallable.check(expr.paren, callee, 1)
+					.call1(this, a);
+			}
+			case 2: {
+				Object a = evaluate(arguments.get(0));
+				Object b = evaluate(arguments.get(1));
+				return LoxCallable.check(expr.paren, callee, 2)
+					.call2(this, a, b);
+			}
+			case 3: {
+				Object a = evaluate(arguments.get(0));
+				Object b = evaluate(arguments.get(1));
+				Object c = evaluate(arguments.get(2));
+				return LoxCallable.check(expr.paren, callee, 3)
+					.call3(this, a, b, c);
+			}
+		}
+		Object[] values = new Object[arguments.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = evaluate(arguments.get(i));
+		}
+		return LoxCallable.check(expr.paren, callee, values.length)
+			.call(this, values);
 	}
 
-	private boolean isTruthy(Object object) {
+	static boolean isTruthy(Object object) {
 		if (object == null) return false;
 		else if (object instanceof Boolean) return (boolean)object;
 		return true;
 	}
 
-	private boolean isEqual(Object a, Object b) {
+	static boolean isEqual(Object a, Object b) {
 		if (a == null && b == null) return true;
 		else if (a == null) return false;
 		return a.equals(b);
 	}
 
-	private String stringify(Object object) {
+	// INFO: the type checks of the operators. Every engine but the VM
+	// makes them through these, so the errors read the same everywhere.
+	static void checkNumberOperand(Token operator, Object operand) {
+		if (operand instanceof Double) return;
+		throw new RuntimeError(operator, "Operand must be a number.");
+	}
+
+	static void checkNumberOperands(Token operator, Object left,
+			Object right) {
+		if (left instanceof Double && right instanceof Double) return;
+		throw numberOperands(operator);
+	}
+
+	static RuntimeError numberOperands(Token operator) {
+		return new RuntimeError(operator, "Operands must be numbers.");
+	}
+
+	// '+' on operands of any type
+	static Object add(Token operator, Object left, Object right) {
+		if (left instanceof Double && right instanceof Double) {
+			return (double)left + (double)right;
+		}
+		if (left instanceof String && right instanceof String) {
+			return (String)left + (String)right;
+		}
+		throw new RuntimeError(operator,
+			"Operands must be two numbers or two strings.");
+	}
+
+	static String stringify(Object object) {
 		if (object == null) return "nil";
 		else if (object instanceof Boolean) {
 			String text = object.toString();
@@ -189,95 +355,187 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return expr.accept(this);
 	}
 
-	private void execute(Stmt stmt) {
-		stmt.accept(this);
+	private Completion execute(Stmt stmt) {
+		return stmt.accept(this);
+	}
+
+	// takes what the return that completed with RETURN returned
+	Object returned() {
+		Object value = returned;
+		returned = null;
+		return value;
 	}
 
-	void resolve(Expr expr, int depth) {
-		locals.put(expr, depth);
+	private void define(Token name, int local, Object value) {
+		if (local < 0) {
+			globals.define(name.lexeme, value);
+		} else {
+			frame[local] = cells[local] ? new Cell(value) : value;
+		}
 	}
 
 	@Override
-	public Void visitBlockStmt(Stmt.Block stmt) {
-		executeBlock(stmt.statements, new Environment(environment));
-		return null;
+	public Completion visitBlockStmt(Stmt.Block stmt) {
+		if (stmt.cells == null) return execute(stmt.statements);
+		return executeFrame(stmt.statements, new Object[stmt.cells.length],
+			stmt.cells, null);
 	}
 
-	void executeBlock(List<Stmt> statements, Environment environment) {
-		Environment previous = this.environment;
+	private Completion execute(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			Completion completion = execute(statement);
+			if (completion != Completion.NORMAL) return completion;
+		}
+		return Completion.NORMAL;
+	}
+
+	// runs statements with the locals of another function or block
+	Completion executeFrame(List<Stmt> statements, Object[] frame,
+			boolean[] cells, Cell[] upvalues) {
+		Object[] previousFrame = this.frame;
+		boolean[] previousCells = this.cells;
+		Cell[] previousUpvalues = this.upvalues;
 		try {
-			this.environment = environment;
-			for (Stmt statement : statements) {
-				execute(statement);
-			}
+			this.frame = frame;
+			this.cells = cells;
+			this.upvalues = upvalues;
+			return execute(statements);
 		} finally {
-			this.environment = previous;
+			this.frame = previousFrame;
+			this.cells = previousCells;
+			this.upvalues = previousUpvalues;
 		}
 	}
 
 	@Override
-	public Void visitExpressionStmt(Stmt.Expression stmt) {
+	public Completion visitExpressionStmt(Stmt.Expression stmt) {
 		evaluate(stmt.expression);
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitFunctionStmt(Stmt.Function stmt) {
-		LoxFunction function = new LoxFunction(stmt, environment);
-		environment.define(stmt.name.lexeme, function);
-		return null;
+	public Completion visitFunctionStmt(Stmt.Function stmt) {
+		// a function capturing itself needs its Cell before it exists
+		Cell self = null;
+		if (stmt.local >= 0 && cells[stmt.local]) {
+			self = new Cell(null);
+			frame[stmt.local] = self;
+		}
+		Cell[] captured = new Cell[stmt.upvalues.length];
+		for (int i = 0; i < captured.length; i++) {
+			int upvalue = stmt.upvalues[i];
+			captured[i] = upvalue >= 0
+				? (Cell)frame[upvalue] : upvalues[-1 - upvalue];
+		}
+		LoxFunction function = new LoxFunction(stmt, captured);
+		if (self != null) {
+			self.value = function;
+		} else {
+			define(stmt.name, stmt.local, function);
+		}
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitIfStmt(Stmt.If stmt) {
+	public Completion visitIfStmt(Stmt.If stmt) {
 		if (isTruthy(evaluate(stmt.condition))) {
-			execute(stmt.thenBranch);
+			return execute(stmt.thenBranch);
 		} else if (stmt.elseBranch != null) {
-			execute(stmt.elseBranch);
+			return execute(stmt.elseBranch);
 		}
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitPrintStmt(Stmt.Print stmt) {
+	public Completion visitPrintStmt(Stmt.Print stmt) {
 		Object value = evaluate(stmt.expression);
 		System.out.println(stringify(value));
-		return null;
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitReturnStmt(Stmt.Return stmt) {
+	public Completion visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.tailCall) {
+			// the call is made by the trampoline in LoxFunction.run()
+			// once this function's frames are gone
+			Expr.Call call = (Expr.Call)stmt.value;
+			Object callee = evaluate(call.callee);
+			LoxFunction function = function(call, callee);
+			returned = function != null
+				? new Return(function, frame(call, function))
+				: call(call, callee);
+			return Completion.RETURN;
+		}
 		Object value = null;
 		if (stmt.value != null) value = evaluate(stmt.value);
-		throw new Return(value);
+		returned = value;
+		return Completion.RETURN;
 	}
 
 	@Override
-	public Void visitVarStmt(Stmt.Var stmt) {
+	public Completion visitVarStmt(Stmt.Var stmt) {
 		Object value = null;
 		if (stmt.initializer != null) {
 			value = evaluate(stmt.initializer);
 		}
-		environment.define(stmt.name.lexeme, value);
-		return null;
+		define(stmt.name, stmt.local, value);
+		return Completion.NORMAL;
 	}
 
 	@Override
-	public Void visitWhileStmt(Stmt.While stmt) {
+	public Completion visitWhileStmt(Stmt.While stmt) {
+		CountedLoop counted = stmt.counted;
+		if (counted == null) {
+			counted = CountedLoop.of(stmt, cells);
+			stmt.counted = counted;
+		}
+		if (counted != CountedLoop.NONE) {
+			Object start = frame[counted.counter];
+			Object bound = counted.bound(frame);
+			if (start instanceof Double && bound instanceof Double) {
+				return executeCounted(stmt, counted, (double)start,
+					(double)bound);
+			}
+		}
 		while (isTruthy(evaluate(stmt.condition))) {
-			execute(stmt.body);
+			Completion completion = execute(stmt.body);
+			if (completion != Completion.NORMAL) return completion;
 		}
-		return null;
+		return Completion.NORMAL;
+	}
+
+	// runs a loop CountedLoop recognized, see there
+	private Completion executeCounted(Stmt.While stmt, CountedLoop loop,
+			double counter, double bound) {
+		List<Stmt> statements = ((Stmt.Block)stmt.body).statements;
+		// the last statement is the increment
+		int increment = statements.size() - 1;
+		while (loop.inclusive ? counter <= bound : counter < bound) {
+			for (int i = 0; i < increment; i++) {
+				Completion completion = execute(statements.get(i));
+				if (completion != Completion.NORMAL) return completion;
+			}
+			counter += loop.step;
+			if (loop.reads) frame[loop.counter] = counter;
+		}
+		if (!loop.reads) frame[loop.counter] = counter;
+		return Completion.NORMAL;
 	}
 
 	@Override
 	public Object visitAssignExpr(Expr.Assign expr) {
 		Object value = evaluate(expr.value);
-		Integer distance = locals.get(expr);
-		if (distance != null) {
-			environment.assignAt(distance, expr.name, value);
+		if (expr.local >= 0) {
+			if (cells[expr.local]) {
+				((Cell)frame[expr.local]).value = value;
+			} else {
+				frame[expr.local] = value;
+			}
+		} else if (expr.upvalue >= 0) {
+			upvalues[expr.upvalue].value = value;
 		} else {
-			globals.assign(expr.name, value);
+			expr.global = global(expr.name, expr.global);
+			Environment.assign(expr.global, expr.name, value);
 		}
 		return value;
 	}
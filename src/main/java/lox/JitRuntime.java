@@ -0,0 +1,90 @@
+package lox;
+
+// INFO: the operations compiled Lox functions call into. They make the
+// type checks of the Interpreter, with the same messages.
+final class JitRuntime {
+	private JitRuntime() {}
+
+	static Object add(Object left, Object right, Token operator) {
+		return Interpreter.add(operator, left, right);
+	}
+
+	static Object subtract(Object left, Object right, Token operator) {
+		Interpreter.checkNumberOperands(operator, left, right);
+		return (double)left - (double)right;
+	}
+
+	static Object multiply(Object left, Object right, Token operator) {
+		Interpreter.checkNumberOperands(operator, left, right);
+		return (double)left * (double)right;
+	}
+
+	static Object divide(Object left, Object right, Token operator) {
+		Interpreter.checkNumberOperands(operator, left, right);
+		return (double)left / (double)right;
+	}
+
+	static Object greater(Object left, Object right, Token operator) {
+		Interpreter.checkNumberOperands(operator, left, right);
+		return (double)left > (double)right;
+	}
+
+	static Object greaterEqual(Object left, Object right, Token operator) {
+		Interpreter.checkNumberOperands(operator, left, right);
+		return (double)left >= (double)right;
+	}
+
+	static Object less(Object left, Object right, Token operator) {
+		Interpreter.checkNumberOperands(operator, left, right);
+		return (double)left < (double)right;
+	}
+
+	static Object lessEqual(Object left, Object right, Token operator) {
+		Interpreter.checkNumberOperands(operator, left, right);
+		return (double)left <= (double)right;
+	}
+
+	static Object equal(Object left, Object right) {
+		return Interpreter.isEqual(left, right);
+	}
+
+	static Object notEqual(Object left, Object right) {
+		return !Interpreter.isEqual(left, right);
+	}
+
+	static Object negate(Object right, Token operator) {
+		Interpreter.checkNumberOperand(operator, right);
+		return -(double)right;
+	}
+
+	static Object not(Object right) {
+		return !Interpreter.isTruthy(right);
+	}
+
+	static Object assignGlobal(Object value, Cell global, Token name) {
+		Environment.assign(global, name, value);
+		return value;
+	}
+
+	static void print(Object value) {
+		System.out.println(Interpreter.stringify(value));
+	}
+
+	static Object call(Object callee, Object[] arguments,
+			Interpreter interpreter, Token paren) {
+		return LoxCallable.check(paren, callee, arguments.length)
+			.call(interpreter, arguments);
+	}
+
+	// a call in tail position: calls to Lox functions are handed back
+	// to the trampoline in LoxFunction.run() as an (unthrown) Return
+	static Object tailCall(Object callee, Object[] arguments,
+			Interpreter interpreter, Token paren) {
+		if (callee instanceof LoxFunction &&
+				arguments.length == ((LoxFunction)callee).arity()) {
+			LoxFunction function = (LoxFunction)callee;
+			return new Return(function, function.frame(arguments));
+		}
+		return call(callee, arguments, interpreter, paren);
+	}
+}
@@ -0,0 +1,423 @@
+package lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// INFO: compiles the body of a hot Lox function to a JVM method and
+// loads it as a hidden class, so HotSpot can JIT the Lox code itself.
+//
+// Locals of the compiled function live in JVM locals instead of
+// Environments: every scope of the body gets its own range of JVM
+// locals, indexed by the slots the Resolver handed out. That only works
+// while nothing can capture them, so functions declaring functions are
+// left to the Interpreter. Variables of enclosing functions are read
+// through the Cells of the closure, globals through the Cell of their
+// name, a constant of the compiled class.
+class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+	// calls a LoxFunction runs interpreted before it gets compiled
+	static final int HOT_THRESHOLD = 1000;
+
+	private static final String OBJECT = "java/lang/Object";
+	private static final String OBJ = "Ljava/lang/Object;";
+	private static final String TOKEN = "Llox/Token;";
+	private static final String CELL = "Llox/Cell;";
+	private static final String RUNTIME = "lox/JitRuntime";
+	private static final String BINARY = "(" + OBJ + OBJ + TOKEN + ")" + OBJ;
+	private static final String INVOKE = "(Llox/Interpreter;[Llox/Cell;[" +
+		OBJ + ")" + OBJ;
+
+	// JVM locals of invoke(): this, interpreter, upvalues, frame
+	private static final int INTERPRETER = 1;
+	private static final int UPVALUES = 2;
+	private static final int FRAME = 3;
+	private static final int FIRST_LOCAL = 4;
+
+	private final Environment globals;
+	// compiled bodies are shared by every closure of a declaration,
+	// null marks a declaration that can't be compiled
+	private final Map<Stmt.Function, CompiledFunction> cache = new HashMap<>();
+
+	// state of the function being compiled
+	private String className;
+	private ClassWriter classWriter;
+	private ClassWriter.Code code;
+	private List<Object> constants;
+	private Map<Object, Integer> constantIndex;
+	private int[] scopeBase;
+	private int[] scopeSize;
+	private int[] declared;
+	private int scope;
+
+	JvmCompiler(Environment globals) {
+		this.globals = globals;
+	}
+
+	private static class Unsupported extends RuntimeException {
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	CompiledFunction compile(Stmt.Function function) {
+		if (cache.containsKey(function)) return cache.get(function);
+		CompiledFunction compiled = null;
+		try {
+			compiled = define(function, assemble(function));
+		} catch (Unsupported | ClassWriter.TooLarge error) {
+			// stays interpreted
+		}
+		cache.put(function, compiled);
+		return compiled;
+	}
+
+	private CompiledFunction define(Stmt.Function function, byte[] bytes) {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup()
+				.defineHiddenClass(bytes, true);
+			return (CompiledFunction)lookup.findConstructor(
+				lookup.lookupClass(),
+				MethodType.methodType(void.class, Object[].class))
+				.invoke(constants.toArray());
+		} catch (Throwable error) {
+			throw new IllegalStateException(
+				"Failed to load compiled function '" +
+				function.name.lexeme + "'.", error);
+		}
+	}
+
+	private byte[] assemble(Stmt.Function function) {
+		className = "lox/Compiled$" + function.name.lexeme;
+		classWriter = new ClassWriter(className, OBJECT,
+			"lox/CompiledFunction");
+		constants = new ArrayList<>();
+		constantIndex = new HashMap<>();
+		classWriter.field(ClassWriter.ACC_FINAL, "k", "[" + OBJ);
+
+		ClassWriter.Code init = new ClassWriter.Code(2);
+		init.load(0);
+		init.op(0xb7, classWriter.methodRef(OBJECT, "<init>", "()V"), -1);
+		init.load(0);
+		init.load(1);
+		init.op(0xb5, classWriter.fieldRef(className, "k", "[" + OBJ), -2);
+		init.op(0xb1, 0);
+		classWriter.method(0, "<init>", "([" + OBJ + ")V", init);
+
+		code = new ClassWriter.Code(FIRST_LOCAL);
+		int depth = maxScopeDepth(function.body) + 1;
+		scopeBase = new int[depth];
+		scopeSize = new int[depth];
+		declared = new int[depth];
+		scope = 0;
+		scopeBase[0] = FIRST_LOCAL;
+		scopeSize[0] = function.slots;
+
+		// copy the parameters out of the frame
+		for (int i = 0; i < function.params.size(); i++) {
+			code.load(FRAME);
+			code.pushInt(i);
+			code.op(0x32, -1);
+			code.store(local(0, declared[0]++));
+		}
+		compile(function.body);
+		code.op(0x01, 1);
+		code.op(0xb0, -1);
+		classWriter.method(ClassWriter.ACC_PUBLIC, "invoke", INVOKE, code);
+		return classWriter.toByteArray();
+	}
+
+	// blocks nest at most this deep inside the body
+	private static int maxScopeDepth(List<Stmt> statements) {
+		int depth = 0;
+		for (Stmt statement : statements) {
+			depth = Math.max(depth, maxScopeDepth(statement));
+		}
+		return depth;
+	}
+
+	private static int maxScopeDepth(Stmt statement) {
+		if (statement instanceof Stmt.Block) {
+			return 1 + maxScopeDepth(((Stmt.Block)statement).statements);
+		} else if (statement instanceof Stmt.If) {
+			Stmt.If stmt = (Stmt.If)statement;
+			int depth = maxScopeDepth(stmt.thenBranch);
+			if (stmt.elseBranch != null) {
+				depth = Math.max(depth, maxScopeDepth(stmt.elseBranch));
+			}
+			return depth;
+		} else if (statement instanceof Stmt.While) {
+			return maxScopeDepth(((Stmt.While)statement).body);
+		}
+		return 0;
+	}
+
+	private int local(int scope, int slot) {
+		return scopeBase[scope] + slot;
+	}
+
+	private void compile(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			compile(statement);
+		}
+	}
+
+	private void compile(Stmt stmt) {
+		stmt.accept(this);
+	}
+
+	private void compile(Expr expr) {
+		expr.accept(this);
+	}
+
+	// pushes a value from the constant array of the compiled class
+	private void constant(Object value, String type) {
+		Integer index = constantIndex.get(value);
+		if (index == null) {
+			index = constants.size();
+			constants.add(value);
+			constantIndex.put(value, index);
+		}
+		code.load(0);
+		code.op(0xb4, classWriter.fieldRef(className, "k", "[" + OBJ), 0);
+		code.pushInt(index);
+		code.op(0x32, -1);
+		if (type != null) code.op(0xc0, classWriter.classRef(type), 0);
+	}
+
+	private void invokeRuntime(String name, String descriptor,
+			int stackChange) {
+		code.op(0xb8, classWriter.methodRef(RUNTIME, name, descriptor),
+			stackChange);
+	}
+
+	private void isTruthy() {
+		code.op(0xb8, classWriter.methodRef("lox/Interpreter", "isTruthy",
+			"(" + OBJ + ")Z"), 0);
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		scope++;
+		scopeBase[scope] = scopeBase[scope - 1] + scopeSize[scope - 1];
+		scopeSize[scope] = stmt.slots;
+		declared[scope] = 0;
+		compile(stmt.statements);
+		scope--;
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		compile(stmt.expression);
+		code.op(0x57, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Stmt.Function stmt) {
+		// its closure would capture our locals
+		throw new Unsupported();
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		ClassWriter.Label elseBranch = new ClassWriter.Label();
+		ClassWriter.Label end = new ClassWriter.Label();
+		compile(stmt.condition);
+		isTruthy();
+		code.jump(0x99, elseBranch, -1);
+		compile(stmt.thenBranch);
+		code.jump(0xa7, end, 0);
+		code.bind(elseBranch);
+		if (stmt.elseBranch != null) compile(stmt.elseBranch);
+		code.bind(end);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		compile(stmt.expression);
+		invokeRuntime("print", "(" + OBJ + ")V", -1);
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.tailCall) {
+			compileCall((Expr.Call)stmt.value, "tailCall");
+		} else if (stmt.value != null) {
+			compile(stmt.value);
+		} else {
+			code.op(0x01, 1);
+		}
+		code.op(0xb0, -1);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		if (stmt.initializer != null) {
+			compile(stmt.initializer);
+		} else {
+			code.op(0x01, 1);
+		}
+		code.store(local(scope, declared[scope]++));
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(Stmt.While stmt) {
+		ClassWriter.Label start = new ClassWriter.Label();
+		ClassWriter.Label end = new ClassWriter.Label();
+		code.bind(start);
+		compile(stmt.condition);
+		isTruthy();
+		code.jump(0x99, end, -1);
+		compile(stmt.body);
+		code.jump(0xa7, start, 0);
+		code.bind(end);
+		return null;
+	}
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr) {
+		if (expr.depth < 0) {
+			compile(expr.value);
+			constant(globals.cell(expr.name.lexeme), "lox/Cell");
+			constant(expr.name, "lox/Token");
+			invokeRuntime("assignGlobal",
+				"(" + OBJ + CELL + TOKEN + ")" + OBJ, -2);
+		} else if (expr.depth <= scope) {
+			compile(expr.value);
+			code.op(0x59, 1);
+			code.store(local(scope - expr.depth, expr.slot));
+		} else {
+			// upvalues[i].value = value, leaving value on the stack
+			compile(expr.value);
+			code.op(0x59, 1);
+			upvalue(expr.upvalue);
+			code.op(0x5f, 0);
+			code.op(0xb5, classWriter.fieldRef("lox/Cell", "value", OBJ), -2);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr) {
+		compile(expr.left);
+		compile(expr.right);
+		switch (expr.operator.type) {
+			case BANG_EQUAL:
+				invokeRuntime("notEqual", "(" + OBJ + OBJ + ")" + OBJ, -1);
+				return null;
+			case EQUAL_EQUAL:
+				invokeRuntime("equal", "(" + OBJ + OBJ + ")" + OBJ, -1);
+				return null;
+		}
+		constant(expr.operator, "lox/Token");
+		switch (expr.operator.type) {
+			case GREATER: invokeRuntime("greater", BINARY, -2); break;
+			case GREATER_EQUAL: invokeRuntime("greaterEqual", BINARY, -2); break;
+			case LESS: invokeRuntime("less", BINARY, -2); break;
+			case LESS_EQUAL: invokeRuntime("lessEqual", BINARY, -2); break;
+			case MINUS: invokeRuntime("subtract", BINARY, -2); break;
+			case PLUS: invokeRuntime("add", BINARY, -2); break;
+			case SLASH: invokeRuntime("divide", BINARY, -2); break;
+			case STAR: invokeRuntime("multiply", BINARY, -2); break;
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Expr.Call expr) {
+		compileCall(expr, "call");
+		return null;
+	}
+
+	private void compileCall(Expr.Call expr, String helper) {
+		compile(expr.callee);
+		code.pushInt(expr.arguments.size());
+		code.op(0xbd, classWriter.classRef(OBJECT), 0);
+		for (int i = 0; i < expr.arguments.size(); i++) {
+			code.op(0x59, 1);
+			code.pushInt(i);
+			compile(expr.arguments.get(i));
+			code.op(0x53, -3);
+		}
+		code.load(INTERPRETER);
+		constant(expr.paren, "lox/Token");
+		invokeRuntime(helper, "(" + OBJ + "[" + OBJ +
+			"Llox/Interpreter;" + TOKEN + ")" + OBJ, -3);
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr) {
+		compile(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr) {
+		if (expr.value == null) {
+			code.op(0x01, 1);
+		} else {
+			constant(expr.value, null);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(Expr.Logical expr) {
+		ClassWriter.Label end = new ClassWriter.Label();
+		compile(expr.left);
+		code.op(0x59, 1);
+		isTruthy();
+		if (expr.operator.type == TokenType.OR) {
+			code.jump(0x9a, end, -1);
+		} else {
+			code.jump(0x99, end, -1);
+		}
+		code.op(0x57, -1);
+		compile(expr.right);
+		code.bind(end);
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr) {
+		compile(expr.right);
+		if (expr.operator.type == TokenType.MINUS) {
+			constant(expr.operator, "lox/Token");
+			invokeRuntime("negate", "(" + OBJ + TOKEN + ")" + OBJ, -1);
+		} else {
+			invokeRuntime("not", "(" + OBJ + ")" + OBJ, 0);
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr) {
+		if (expr.depth < 0) {
+			constant(globals.cell(expr.name.lexeme), "lox/Cell");
+			constant(expr.name, "lox/Token");
+			code.op(0xb8, classWriter.methodRef("lox/Environment", "get",
+				"(" + CELL + TOKEN + ")" + OBJ), -1);
+		} else if (expr.depth <= scope) {
+			code.load(local(scope - expr.depth, expr.slot));
+		} else {
+			upvalue(expr.upvalue);
+			code.op(0xb4, classWriter.fieldRef("lox/Cell", "value", OBJ), 0);
+		}
+		return null;
+	}
+
+	// pushes the Cell of an upvalue
+	private void upvalue(int index) {
+		code.load(UPVALUES);
+		code.pushInt(index);
+		code.op(0x32, -1);
+	}
+}
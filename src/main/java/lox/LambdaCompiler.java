@@ -0,0 +1,344 @@
+package lox;
+
+import java.util.List;
+import java.util.Map;
+
+// INFO: the "lambda" engine. One pass after the Resolver turns every
+// node of the AST into a Java lambda with everything it needs already
+// bound: the operator is picked at compile time, slots and depths are
+// captured as ints and literals as constants. Running the program is
+// then just calling lambdas, with no visitor dispatch and no switch on
+// the operator left.
+class LambdaCompiler implements Expr.Visitor<LambdaCompiler.Eval>,
+		Stmt.Visitor<LambdaCompiler.Exec> {
+	interface Eval {
+		Object eval(Environment environment);
+	}
+
+	interface Exec {
+		void exec(Environment environment);
+	}
+
+	final Environment globals = new Environment();
+	// number of enclosing blocks and functions of the node being
+	// compiled, declarations at depth zero are globals
+	private int scopeDepth = 0;
+
+	LambdaCompiler() {
+		for (Map.Entry<String, LoxCallable> fn : Natives.ALL.entrySet()) {
+			globals.define(fn.getKey(), fn.getValue());
+		}
+	}
+
+	void interpret(List<Stmt> statements) {
+		Exec program = sequence(statements);
+		try {
+			program.exec(globals);
+		} catch (RuntimeError error) {
+			Lox.runtimeError(error);
+		}
+	}
+
+	private Exec compile(Stmt stmt) {
+		return stmt.accept(this);
+	}
+
+	private Eval compile(Expr expr) {
+		return expr.accept(this);
+	}
+
+	// runs the statements one after the other
+	private Exec sequence(List<Stmt> statements) {
+		Exec[] body = new Exec[statements.size()];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = compile(statements.get(i));
+		}
+		switch (body.length) {
+			case 0:
+				return environment -> {};
+			case 1:
+				return body[0];
+			case 2: {
+				Exec first = body[0];
+				Exec second = body[1];
+				return environment -> {
+					first.exec(environment);
+					second.exec(environment);
+				};
+			}
+			default:
+				return environment -> {
+					for (Exec statement : body) {
+						statement.exec(environment);
+					}
+				};
+		}
+	}
+
+	@Override
+	public Exec visitBlockStmt(Stmt.Block stmt) {
+		scopeDepth++;
+		Exec body = sequence(stmt.statements);
+		scopeDepth--;
+		int slots = stmt.slots;
+		return environment -> body.exec(new Environment(environment, slots));
+	}
+
+	@Override
+	public Exec visitExpressionStmt(Stmt.Expression stmt) {
+		Eval expression = compile(stmt.expression);
+		return environment -> expression.eval(environment);
+	}
+
+	@Override
+	public Exec visitFunctionStmt(Stmt.Function stmt) {
+		boolean global = scopeDepth == 0;
+		scopeDepth++;
+		Exec body = sequence(stmt.body);
+		scopeDepth--;
+		String name = stmt.name.lexeme;
+		int arity = stmt.params.size();
+		int slots = stmt.slots;
+		if (global) {
+			return environment -> globals.define(name,
+				new LambdaFunction(name, arity, slots, body, environment));
+		}
+		return environment -> environment.define(
+			new LambdaFunction(name, arity, slots, body, environment));
+	}
+
+	@Override
+	public Exec visitIfStmt(Stmt.If stmt) {
+		Eval condition = compile(stmt.condition);
+		Exec thenBranch = compile(stmt.thenBranch);
+		if (stmt.elseBranch == null) {
+			return environment -> {
+				if (Interpreter.isTruthy(condition.eval(environment))) {
+					thenBranch.exec(environment);
+				}
+			};
+		}
+		Exec elseBranch = compile(stmt.elseBranch);
+		return environment -> {
+			if (Interpreter.isTruthy(condition.eval(environment))) {
+				thenBranch.exec(environment);
+			} else {
+				elseBranch.exec(environment);
+			}
+		};
+	}
+
+	@Override
+	public Exec visitPrintStmt(Stmt.Print stmt) {
+		Eval expression = compile(stmt.expression);
+		return environment -> System.out.println(
+			Interpreter.stringify(expression.eval(environment)));
+	}
+
+	@Override
+	public Exec visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.value == null) {
+			return environment -> {
+				throw new Return(null);
+			};
+		}
+		Eval value = compile(stmt.value);
+		return environment -> {
+			throw new Return(value.eval(environment));
+		};
+	}
+
+	@Override
+	public Exec visitVarStmt(Stmt.Var stmt) {
+		Eval value = environment -> null;
+		if (stmt.initializer != null) value = compile(stmt.initializer);
+		Eval initializer = value;
+		if (scopeDepth == 0) {
+			String name = stmt.name.lexeme;
+			return environment -> globals.define(name,
+				initializer.eval(environment));
+		}
+		return environment -> environment.define(
+			initializer.eval(environment));
+	}
+
+	@Override
+	public Exec visitWhileStmt(Stmt.While stmt) {
+		Eval condition = compile(stmt.condition);
+		Exec body = compile(stmt.body);
+		return environment -> {
+			while (Interpreter.isTruthy(condition.eval(environment))) {
+				body.exec(environment);
+			}
+		};
+	}
+
+	@Override
+	public Eval visitAssignExpr(Expr.Assign expr) {
+		Eval value = compile(expr.value);
+		if (expr.depth < 0) {
+			Token name = expr.name;
+			Cell global = globals.cell(name.lexeme);
+			return environment -> {
+				Object result = value.eval(environment);
+				Environment.assign(global, name, result);
+				return result;
+			};
+		}
+		int depth = expr.depth;
+		int slot = expr.slot;
+		return environment -> {
+			Object result = value.eval(environment);
+			environment.assignAt(depth, slot, result);
+			return result;
+		};
+	}
+
+	@Override
+	public Eval visitBinaryExpr(Expr.Binary expr) {
+		Eval left = compile(expr.left);
+		Eval right = compile(expr.right);
+		Token operator = expr.operator;
+
+		switch (operator.type) {
+			case GREATER:
+				return environment -> {
+					Object a = left.eval(environment);
+					Object b = right.eval(environment);
+					Interpreter.checkNumberOperands(operator, a, b);
+					return (double)a > (double)b;
+				};
+			case GREATER_EQUAL:
+				return environment -> {
+					Object a = left.eval(environment);
+					Object b = right.eval(environment);
+					Interpreter.checkNumberOperands(operator, a, b);
+					return (double)a >= (double)b;
+				};
+			case LESS:
+				return environment -> {
+					Object a = left.eval(environment);
+					Object b = right.eval(environment);
+					Interpreter.checkNumberOperands(operator, a, b);
+					return (double)a < (double)b;
+				};
+			case LESS_EQUAL:
+				return environment -> {
+					Object a = left.eval(environment);
+					Object b = right.eval(environment);
+					Interpreter.checkNumberOperands(operator, a, b);
+					return (double)a <= (double)b;
+				};
+			case MINUS:
+				return environment -> {
+					Object a = left.eval(environment);
+					Object b = right.eval(environment);
+					Interpreter.checkNumberOperands(operator, a, b);
+					return (double)a - (double)b;
+				};
+			case PLUS:
+				return environment -> {
+					Object a = left.eval(environment);
+					Object b = right.eval(environment);
+					return Interpreter.add(operator, a, b);
+				};
+			case SLASH:
+				return environment -> {
+					Object a = left.eval(environment);
+					Object b = right.eval(environment);
+					Interpreter.checkNumberOperands(operator, a, b);
+					return (double)a / (double)b;
+				};
+			case STAR:
+				return environment -> {
+					Object a = left.eval(environment);
+					Object b = right.eval(environment);
+					Interpreter.checkNumberOperands(operator, a, b);
+					return (double)a * (double)b;
+				};
+			case BANG_EQUAL:
+				return environment -> !Interpreter.isEqual(
+					left.eval(environment), right.eval(environment));
+			case EQUAL_EQUAL:
+				return environment -> Interpreter.isEqual(
+					left.eval(environment), right.eval(environment));
+		}
+		// Unreachable.
+		return null;
+	}
+
+	@Override
+	public Eval visitCallExpr(Expr.Call expr) {
+		Eval callee = compile(expr.callee);
+		Eval[] arguments = new Eval[expr.arguments.size()];
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = compile(expr.arguments.get(i));
+		}
+		Token paren = expr.paren;
+		return environment -> {
+			Object function = callee.eval(environment);
+			Object[] values = new Object[arguments.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = arguments[i].eval(environment);
+			}
+			// lambda functions and natives don't use the Interpreter
+			return LoxCallable.check(paren, function, values.length)
+				.call(null, values);
+		};
+	}
+
+	@Override
+	public Eval visitGroupingExpr(Expr.Grouping expr) {
+		return compile(expr.expression);
+	}
+
+	@Override
+	public Eval visitLiteralExpr(Expr.Literal expr) {
+		Object value = expr.value;
+		return environment -> value;
+	}
+
+	@Override
+	public Eval visitLogicalExpr(Expr.Logical expr) {
+		Eval left = compile(expr.left);
+		Eval right = compile(expr.right);
+		if (expr.operator.type == TokenType.OR) {
+			return environment -> {
+				Object value = left.eval(environment);
+				if (Interpreter.isTruthy(value)) return value;
+				return right.eval(environment);
+			};
+		}
+		return environment -> {
+			Object value = left.eval(environment);
+			if (!Interpreter.isTruthy(value)) return value;
+			return right.eval(environment);
+		};
+	}
+
+	@Override
+	public Eval visitUnaryExpr(Expr.Unary expr) {
+		Eval right = compile(expr.right);
+		if (expr.operator.type == TokenType.BANG) {
+			return environment -> !Interpreter.isTruthy(right.eval(environment));
+		}
+		Token operator = expr.operator;
+		return environment -> {
+			Object value = right.eval(environment);
+			Interpreter.checkNumberOperand(operator, value);
+			return -(double)value;
+		};
+	}
+
+	@Override
+	public Eval visitVariableExpr(Expr.Variable expr) {
+		if (expr.depth < 0) {
+			Token name = expr.name;
+			Cell global = globals.cell(name.lexeme);
+			return environment -> Environment.get(global, name);
+		}
+		int depth = expr.depth;
+		int slot = expr.slot;
+		return environment -> environment.getAt(depth, slot);
+	}
+}
@@ -0,0 +1,44 @@
+package lox;
+
+// INFO: a closure of the "lambda" engine, its body was compiled once
+// per declaration by the LambdaCompiler
+class LambdaFunction implements LoxCallable {
+	private final String name;
+	private final int arity;
+	private final int slots;
+	private final LambdaCompiler.Exec body;
+	private final Environment closure;
+
+	LambdaFunction(String name, int arity, int slots,
+			LambdaCompiler.Exec body, Environment closure) {
+		this.name = name;
+		this.arity = arity;
+		this.slots = slots;
+		this.body = body;
+		this.closure = closure;
+	}
+
+	@Override
+	public Object call(Interpreter interpreter, Object[] arguments) {
+		Environment environment = new Environment(closure, slots);
+		for (int i = 0; i < arity; i++) {
+			environment.define(arguments[i]);
+		}
+		try {
+			body.exec(environment);
+		} catch (Return returnValue) {
+			return returnValue.value;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "<fn " + name + ">";
+	}
+
+	@Override
+	public int arity() {
+		return arity;
+	}
+}
@@ -0,0 +1,59 @@
+package lox;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// INFO: the body of a function the Parser only skimmed ("--lazy"). The
+// skim counts braces to find where the body ends, nothing more, so a
+// program with many functions starts running before they are parsed.
+// The first call parses the body from its tokens and resolves it in the
+// scopes that were around the declaration, kept by the Resolver. Syntax
+// and resolution errors in the body are only reported then. Until then
+// Stmt.Function.body is an empty list, the statements are added to it.
+final class LazyBody {
+	private final TokenBuffer tokens;
+	// the first token of the body, the one after its "{", and its "}"
+	private final int start;
+	private final int end;
+	// set by the Resolver when it reaches the declaration
+	Resolver resolver = null;
+
+	LazyBody(TokenBuffer tokens, int start, int end) {
+		this.tokens = tokens;
+		this.start = start;
+		this.end = end;
+	}
+
+	// every name used in the body, by itself or by functions in it
+	Set<String> names() {
+		Set<String> names = new HashSet<>();
+		for (int i = start; i < end; i++) {
+			if (tokens.type(i) == TokenType.IDENTIFIER) {
+				names.add(tokens.lexeme(i));
+			}
+		}
+		return names;
+	}
+
+	static void parse(Stmt.Function function) {
+		LazyBody lazy = function.lazy;
+		// a program only runs when it had no errors, so every error
+		// from here on is in this body
+		List<Stmt> body = new Parser(lazy.tokens, lazy.start).parseBody();
+		if (!Lox.hadError) {
+			function.body.addAll(body);
+			lazy.resolver.resolveBody(function);
+		}
+		if (Lox.hadError) {
+			function.body.clear();
+			throw new RuntimeError(function.name,
+				"Can't call '" + function.name.lexeme + "', its body has errors.");
+		}
+		TypeInference types = new TypeInference();
+		types.infer(function);
+		if (Lox.typeStats) types.report();
+		// the tokens aren't needed anymore once every body is parsed
+		function.lazy = null;
+	}
+}
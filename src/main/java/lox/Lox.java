@@ -3,32 +3,154 @@ package lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
-	private static final Interpreter INTERPRETER = new Interpreter();
+	private static Interpreter interpreter = null;
+	private static VM vm = null;
+	private static NodeInterpreter nodes = null;
+	private static LambdaCompiler lambdas = null;
 	static boolean hadError = false;
 	static boolean hadRuntimeError = false;
 
+	// INFO: the tree-walk Interpreter is the default engine,
+	// "--engine=vm" compiles to bytecode and runs it on the VM instead,
+	// "--engine=nodes" runs a self-specializing node tree,
+	// "--engine=lambda" runs the AST compiled to a tree of lambdas, and
+	// "--engine=tiered" is the tree-walker compiling hot functions to
+	// JVM bytecode
+	private enum Engine {
+		TREE,
+		TIERED,
+		VM,
+		NODES,
+		LAMBDA
+	}
+	private static Engine engine = Engine.TREE;
+	// "-O" runs the Optimizer over the resolved AST
+	private static boolean optimize = false;
+	// "--parallel-scan" scans big sources on all cores
+	private static boolean parallelScan = false;
+	// "--lazy" parses function bodies when they are first called, only
+	// the tree and tiered engines without "-O" do, the others compile
+	// every function before the program runs
+	private static boolean lazy = false;
+	// "--type-stats" prints how many operations of each function
+	// TypeInference proved the operand types of, for the tree and
+	// tiered engines, the ones using them
+	static boolean typeStats = false;
+	private static boolean prompt = false;
+
 	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("bench")) {
+			Bench.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		String script = null;
+		for (String arg : args) {
+			if (option(arg)) continue;
+			if (arg.startsWith("-") || script != null) {
+				usage();
+			} else {
+				script = arg;
+			}
+		}
+		startEngine();
+
 		// if no argument are passed to the interpreter
-		if (1 < args.length) {
-			System.out.println("Usage: jlox [script]");
-			System.exit(64);
-		} else if (args.length == 1) {
-			runFile(args[0]);
+		if (script != null) {
+			runFile(script);
 		} else {
 			runPrompt();
 		}
 	}
 
-	private static void runFile(String path) throws IOException {
-		byte[] bytes = Files.readAllBytes(Paths.get(path));
+	// reads the options shared by running a script and "jlox bench",
+	// false when arg isn't one of them
+	static boolean option(String arg) {
+		switch (arg) {
+			case "-O":
+				optimize = true;
+				return true;
+			case "--parallel-scan":
+				parallelScan = true;
+				return true;
+			case "--lazy":
+				lazy = true;
+				return true;
+			case "--type-stats":
+				typeStats = true;
+				return true;
+			case "--engine=tree":
+				engine = Engine.TREE;
+				return true;
+			case "--engine=vm":
+				engine = Engine.VM;
+				return true;
+			case "--engine=nodes":
+				engine = Engine.NODES;
+				return true;
+			case "--engine=tiered":
+				engine = Engine.TIERED;
+				return true;
+			case "--engine=lambda":
+				engine = Engine.LAMBDA;
+				return true;
+		}
+		return false;
+	}
+
+	// the options as they were given, e.g. "--engine=vm -O"
+	static String options() {
+		String options = "--engine=" + engine.name().toLowerCase();
+		if (optimize) options += " -O";
+		if (parallelScan) options += " --parallel-scan";
+		if (lazy) options += " --lazy";
+		if (typeStats) options += " --type-stats";
+		return options;
+	}
+
+	// a fresh instance of the selected engine, with nothing defined yet
+	// but the natives
+	static void startEngine() {
+		if (engine == Engine.TREE) interpreter = new Interpreter();
+		if (engine == Engine.TIERED) interpreter = new Interpreter(true);
+		if (engine == Engine.VM) vm = new VM();
+		if (engine == Engine.NODES) nodes = new NodeInterpreter();
+		if (engine == Engine.LAMBDA) lambdas = new LambdaCompiler();
+	}
+
+	static void usage() {
+		System.out.println("Usage: jlox [-O] [--engine=tree|tiered|vm|nodes|lambda] [--parallel-scan] [--lazy] [--type-stats] [script]");
+		System.out.println("       jlox bench [-O] [--engine=...] [--warmup=N] [--runs=N] [--forks=N]");
+		System.out.println("                  [--baseline=file] [--threshold=percent] [--save]");
+		System.out.println("                  [program...]");
+		System.exit(64);
+	}
 
-		run(new String(bytes, Charset.defaultCharset()));
+	private static void runFile(String path) throws IOException {
+		if (parallelScan || lazyParsing()) {
+			// the chunks are scanned out of order, and lazy bodies are
+			// parsed from the tokens later, so the whole file has to be
+			// in memory
+			byte[] bytes = Files.readAllBytes(Paths.get(path));
+			run(new String(bytes, Charset.defaultCharset()));
+		} else {
+			// the file is scanned while it's read, it's never in memory
+			// as a whole
+			try (Reader reader = new InputStreamReader(
+				Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+				run(new Parser(new Scanner(reader)));
+			} catch (UncheckedIOException error) {
+				throw error.getCause();
+			}
+		}
 		if (hadError) System.exit(65);
 		else if (hadRuntimeError) System.exit(70);
 	}
@@ -36,6 +158,7 @@ public class Lox {
 	private static void runPrompt() throws IOException {
 		InputStreamReader input = new InputStreamReader(System.in);
 		BufferedReader reader = new BufferedReader(input);
+		prompt = true;
 
 		while (true) {
 			System.out.print("> ");
@@ -47,24 +170,57 @@ public class Lox {
 		}
 	}
 
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-		Parser parser  = new Parser(tokens);
+	static void run(String source) {
+		TokenBuffer tokens = parallelScan
+			? ParallelScanner.scanTokens(source)
+			: new Scanner(source).scanTokens();
+		run(new Parser(tokens, lazyParsing()));
+	}
+
+	private static boolean lazyParsing() {
+		return lazy && !optimize &&
+			(engine == Engine.TREE || engine == Engine.TIERED);
+	}
+
+	private static void run(Parser parser) {
 		List<Stmt> statements = parser.parse();
 
 		// stop if there was a syntax error
 		if (hadError) return;
 
 		// resovlve the AST befor interpreting
-		Resolver resolver = new Resolver(INTERPRETER);
+		Resolver resolver = new Resolver();
 		resolver.resolve(statements);
 
 		// Stop if there was a resolution error.
 		if (hadError) return;
 
+		if (optimize) {
+			statements = new Optimizer(!prompt).optimize(statements);
+		}
+
 		// interprete expression
-		INTERPRETER.interpret(statements);
+		switch (engine) {
+			case TREE:
+			case TIERED:
+				TypeInference types = new TypeInference();
+				types.infer(statements);
+				if (typeStats) types.report();
+				interpreter.interpret(statements);
+				break;
+			case VM:
+				ObjFunction script = new Compiler(vm).compile(statements);
+				// Stop if the program doesn't fit the bytecode limits.
+				if (hadError) return;
+				vm.interpret(script);
+				break;
+			case NODES:
+				nodes.interpret(statements);
+				break;
+			case LAMBDA:
+				lambdas.interpret(statements);
+				break;
+		}
 
 		// print expression
 		// System.out.println(new AstPrinter().print(expression));
@@ -89,7 +245,7 @@ public class Lox {
 
 	static void runtimeError(RuntimeError error) {
 		System.err.println(error.getMessage() +
-				"\n[line " + error.token.line + "]");
+				"\n[line " + error.line + "]");
 		hadRuntimeError = true;
 	}
 }
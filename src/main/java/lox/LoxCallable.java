@@ -1,8 +1,44 @@
 package lox;
 
-import java.util.List;
-
+// INFO: a call passes its arguments in an array, or as they are to
+// call0() through call3() when there are at most three. Those default
+// to building the array, callables override the ones they can answer
+// without it. The callers have checked the number of arguments
+// against arity() already, with check().
 interface LoxCallable {
 	int arity();
-	Object call(Interpreter interpreter, List<Object> arguments);
+	Object call(Interpreter interpreter, Object[] arguments);
+
+	// the callee of a call at paren with that many arguments, when it
+	// can take them. Every engine but the VM checks its calls here.
+	static LoxCallable check(Token paren, Object callee, int arguments) {
+		if (!(callee instanceof LoxCallable)) {
+			throw new RuntimeError(paren,
+				"Can only call functions and classes.");
+		}
+		LoxCallable function = (LoxCallable)callee;
+		if (arguments != function.arity()) {
+			throw new RuntimeError(paren, "Expected " +
+				function.arity() + " arguments but got " +
+				arguments + ".");
+		}
+		return function;
+	}
+
+	default Object call0(Interpreter interpreter) {
+		return call(interpreter, new Object[0]);
+	}
+
+	default Object call1(Interpreter interpreter, Object a) {
+		return call(interpreter, new Object[] {a});
+	}
+
+	default Object call2(Interpreter interpreter, Object a, Object b) {
+		return call(interpreter, new Object[] {a, b});
+	}
+
+	default Object call3(Interpreter interpreter, Object a, Object b,
+			Object c) {
+		return call(interpreter, new Object[] {a, b, c});
+	}
 }
@@ -1,29 +1,111 @@
 package lox;
 
-import java.util.List;
+import java.util.Arrays;
 
 class LoxFunction implements LoxCallable {
 	private final Stmt.Function declaration;
-	private final Environment closure;
+	// the Cells of the enclosing locals the function uses, see Resolver
+	private final Cell[] upvalues;
+	// INFO: in the tiered engine a function runs interpreted until it
+	// was called JvmCompiler.HOT_THRESHOLD times, then its compiled
+	// body (if it could be compiled) takes over
+	private int calls = 0;
+	private CompiledFunction compiled = null;
 
-	LoxFunction(Stmt.Function declaration, Environment closure) {
-		this.closure = closure;
+	LoxFunction(Stmt.Function declaration, Cell[] upvalues) {
+		this.upvalues = upvalues;
 		this.declaration = declaration;
 	}
 
+	// INFO: a call runs on a frame made by frame(), with the arguments
+	// in its first slots. The Interpreter evaluates them right into it,
+	// the entry points of LoxCallable copy them in.
+	Object[] frame() {
+		// the frame of a lazy body is only known once it's parsed,
+		// run() makes it bigger then
+		if (declaration.lazy != null) return new Object[arity()];
+		return new Object[declaration.cells.length];
+	}
+
+	Object[] frame(Object[] arguments) {
+		Object[] frame = frame();
+		System.arraycopy(arguments, 0, frame, 0, arguments.length);
+		return frame;
+	}
+
+	@Override
+	public Object call(Interpreter interpreter, Object[] arguments) {
+		return run(interpreter, frame(arguments));
+	}
+
+	@Override
+	public Object call0(Interpreter interpreter) {
+		return run(interpreter, frame());
+	}
+
 	@Override
-	public Object call(Interpreter interpreter, List<Object> arguments) {
-		Environment environment = new Environment(closure);
-		for (int i = 0; i < declaration.params.size(); i++) {
-			environment.define(declaration.params.get(i).lexeme,
-				arguments.get(i));
+	public Object call1(Interpreter interpreter, Object a) {
+		Object[] frame = frame();
+		frame[0] = a;
+		return run(interpreter, frame);
+	}
+
+	@Override
+	public Object call2(Interpreter interpreter, Object a, Object b) {
+		Object[] frame = frame();
+		frame[0] = a;
+		frame[1] = b;
+		return run(interpreter, frame);
+	}
+
+	@Override
+	public Object call3(Interpreter interpreter, Object a, Object b,
+			Object c) {
+		Object[] frame = frame();
+		frame[0] = a;
+		frame[1] = b;
+		frame[2] = c;
+		return run(interpreter, frame);
+	}
+
+	// INFO: a tail call returns a Return naming the next function and
+	// its frame instead of a value. The loop then runs that function
+	// here, so tail-recursive code doesn't grow the stack.
+	Object run(Interpreter interpreter, Object[] frame) {
+		LoxFunction function = this;
+		while (true) {
+			Stmt.Function declaration = function.declaration;
+			if (declaration.lazy != null) LazyBody.parse(declaration);
+			CompiledFunction compiled = function.tier(interpreter);
+			Object result;
+			if (compiled != null) {
+				result = compiled.invoke(interpreter, function.upvalues, frame);
+			} else {
+				boolean[] cells = declaration.cells;
+				if (frame.length < cells.length) {
+					frame = Arrays.copyOf(frame, cells.length);
+				}
+				for (int i = 0; i < declaration.params.size(); i++) {
+					if (cells[i]) frame[i] = new Cell(frame[i]);
+				}
+				Interpreter.Completion completion = interpreter.executeFrame(
+					declaration.body, frame, cells, function.upvalues);
+				result = completion == Interpreter.Completion.RETURN
+					? interpreter.returned() : null;
+			}
+			if (!(result instanceof Return)) return result;
+			function = ((Return)result).callee;
+			frame = ((Return)result).frame;
 		}
-		try {
-			interpreter.executeBlock(declaration.body, environment);
-		} catch (Return returnValue) {
-			return returnValue.value;
+	}
+
+	// returns the compiled body once the function got hot
+	private CompiledFunction tier(Interpreter interpreter) {
+		if (compiled != null || interpreter.jit == null) return compiled;
+		if (++calls == JvmCompiler.HOT_THRESHOLD) {
+			compiled = interpreter.jit.compile(declaration);
 		}
-		return null;
+		return compiled;
 	}
 
 	@Override
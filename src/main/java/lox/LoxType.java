@@ -0,0 +1,26 @@
+package lox;
+
+// INFO: the type TypeInference proved a value to have wherever the
+// expression producing it runs. null stands for a value whose type
+// isn't known before it runs, the engines check those as they always
+// did.
+enum LoxType {
+	NUMBER,
+	STRING,
+	BOOLEAN,
+	NIL;
+
+	// the type of a literal value
+	static LoxType of(Object value) {
+		if (value instanceof Double) return NUMBER;
+		if (value instanceof String) return STRING;
+		if (value instanceof Boolean) return BOOLEAN;
+		if (value == null) return NIL;
+		return null;
+	}
+
+	// the type a value has when it comes from either of two places
+	static LoxType merge(LoxType a, LoxType b) {
+		return a == b ? a : null;
+	}
+}
@@ -0,0 +1,50 @@
+package lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// INFO: the native functions every execution engine puts in its globals
+final class Natives {
+	static final Map<String, LoxCallable> ALL = new LinkedHashMap<>();
+
+	static {
+		ALL.put("clock", new LoxCallable() {
+			@Override
+			public int arity() { return 0; }
+
+			@Override
+			public Object call0(Interpreter interpreter) {
+				return (double)System.currentTimeMillis() / 1000.0;
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, Object[] arguments) {
+				return call0(interpreter);
+			}
+
+			@Override
+			public String toString() { return "<native fn>"; }
+		});
+		// for timing short pieces of code, only the difference between
+		// two readings means something
+		ALL.put("clockNanos", new LoxCallable() {
+			@Override
+			public int arity() { return 0; }
+
+			@Override
+			public Object call0(Interpreter interpreter) {
+				return (double)System.nanoTime();
+			}
+
+			@Override
+			public Object call(Interpreter interpreter, Object[] arguments) {
+				return call0(interpreter);
+			}
+
+			@Override
+			public String toString() { return "<native fn>"; }
+		});
+	}
+
+	private Natives() {}
+}
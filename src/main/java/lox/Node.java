@@ -0,0 +1,20 @@
+package lox;
+
+// INFO: base of the executable node tree used by the "nodes" engine.
+// Nodes know their parent so a node can rewrite itself in place:
+// replace() swaps it for a more specialized (or a more generic) node
+// in its parent, in the style of Truffle's self-specializing ASTs.
+abstract class Node {
+	Node parent = null;
+
+	<T extends Node> T adopt(T child) {
+		if (child != null) child.parent = this;
+		return child;
+	}
+
+	// nodes holding expression children override this. false when
+	// oldChild isn't a child of this node, or not any more.
+	boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+		throw new IllegalStateException("Node has no expression children.");
+	}
+}
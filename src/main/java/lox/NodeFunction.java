@@ -0,0 +1,28 @@
+package lox;
+
+// INFO: a closure of the "nodes" engine, runs its body on the node tree
+// built for its declaration instead of the tree-walk Interpreter
+class NodeFunction implements LoxCallable {
+	private final StmtNode.Function declaration;
+	private final Environment closure;
+
+	NodeFunction(StmtNode.Function declaration, Environment closure) {
+		this.declaration = declaration;
+		this.closure = closure;
+	}
+
+	@Override
+	public Object call(Interpreter interpreter, Object[] arguments) {
+		return declaration.call(closure, arguments);
+	}
+
+	@Override
+	public String toString() {
+		return "<fn " + declaration.name() + ">";
+	}
+
+	@Override
+	public int arity() {
+		return declaration.arity();
+	}
+}
@@ -0,0 +1,192 @@
+package lox;
+
+import java.util.List;
+import java.util.Map;
+
+// INFO: the "nodes" engine. Turns the resolved AST into a tree of
+// executable nodes once, then runs that tree. Operator nodes rewrite
+// themselves into type specialized versions while the program runs
+// (see ExprNode), so the tree gets faster the longer it executes.
+class NodeInterpreter implements Expr.Visitor<ExprNode>,
+		Stmt.Visitor<StmtNode> {
+	final Environment globals = new Environment();
+	// number of enclosing blocks and functions of the node being built,
+	// declarations at depth zero are globals
+	private int scopeDepth = 0;
+
+	NodeInterpreter() {
+		for (Map.Entry<String, LoxCallable> fn : Natives.ALL.entrySet()) {
+			globals.define(fn.getKey(), fn.getValue());
+		}
+	}
+
+	void interpret(List<Stmt> statements) {
+		StmtNode[] nodes = build(statements);
+		try {
+			StmtNode.executeAll(nodes, globals);
+		} catch (RuntimeError error) {
+			Lox.runtimeError(error);
+		}
+	}
+
+	private StmtNode[] build(List<Stmt> statements) {
+		StmtNode[] nodes = new StmtNode[statements.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = build(statements.get(i));
+		}
+		return nodes;
+	}
+
+	private StmtNode build(Stmt stmt) {
+		return stmt.accept(this);
+	}
+
+	private ExprNode build(Expr expr) {
+		return expr.accept(this);
+	}
+
+	@Override
+	public StmtNode visitBlockStmt(Stmt.Block stmt) {
+		scopeDepth++;
+		StmtNode[] statements = build(stmt.statements);
+		scopeDepth--;
+		return new StmtNode.Block(stmt.slots, statements);
+	}
+
+	@Override
+	public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+		return new StmtNode.Expression(build(stmt.expression));
+	}
+
+	@Override
+	public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+		Environment target = scopeDepth == 0 ? globals : null;
+		scopeDepth++;
+		StmtNode[] body = build(stmt.body);
+		scopeDepth--;
+		return new StmtNode.Function(stmt.name.lexeme, stmt.params.size(),
+			stmt.slots, body, target);
+	}
+
+	@Override
+	public StmtNode visitIfStmt(Stmt.If stmt) {
+		StmtNode elseBranch = null;
+		if (stmt.elseBranch != null) elseBranch = build(stmt.elseBranch);
+		return new StmtNode.If(build(stmt.condition),
+			build(stmt.thenBranch), elseBranch);
+	}
+
+	@Override
+	public StmtNode visitPrintStmt(Stmt.Print stmt) {
+		return new StmtNode.Print(build(stmt.expression));
+	}
+
+	@Override
+	public StmtNode visitReturnStmt(Stmt.Return stmt) {
+		ExprNode value = null;
+		if (stmt.value != null) value = build(stmt.value);
+		return new StmtNode.Return(value);
+	}
+
+	@Override
+	public StmtNode visitVarStmt(Stmt.Var stmt) {
+		ExprNode value = new ExprNode.Literal(null);
+		if (stmt.initializer != null) value = build(stmt.initializer);
+		if (scopeDepth == 0) {
+			return new StmtNode.DefineGlobal(globals, stmt.name.lexeme, value);
+		}
+		return new StmtNode.DefineLocal(value);
+	}
+
+	@Override
+	public StmtNode visitWhileStmt(Stmt.While stmt) {
+		return new StmtNode.While(build(stmt.condition), build(stmt.body));
+	}
+
+	@Override
+	public ExprNode visitAssignExpr(Expr.Assign expr) {
+		ExprNode value = build(expr.value);
+		if (expr.depth >= 0) {
+			return new ExprNode.LocalWrite(expr.depth, expr.slot, value);
+		}
+		return new ExprNode.GlobalWrite(globals, expr.name, value);
+	}
+
+	@Override
+	public ExprNode visitBinaryExpr(Expr.Binary expr) {
+		ExprNode left = build(expr.left);
+		ExprNode right = build(expr.right);
+		Token operator = expr.operator;
+
+		switch (operator.type) {
+			case PLUS:
+				return new ExprNode.AddUninitialized(operator, left, right);
+			case MINUS:
+				return new ExprNode.Subtract(operator, left, right);
+			case STAR:
+				return new ExprNode.Multiply(operator, left, right);
+			case SLASH:
+				return new ExprNode.Divide(operator, left, right);
+			case GREATER:
+				return new ExprNode.Greater(operator, left, right);
+			case GREATER_EQUAL:
+				return new ExprNode.GreaterEqual(operator, left, right);
+			case LESS:
+				return new ExprNode.Less(operator, left, right);
+			case LESS_EQUAL:
+				return new ExprNode.LessEqual(operator, left, right);
+			case BANG_EQUAL:
+			case EQUAL_EQUAL:
+				return new ExprNode.EqualUninitialized(operator, left, right);
+		}
+		// Unreachable.
+		return null;
+	}
+
+	@Override
+	public ExprNode visitCallExpr(Expr.Call expr) {
+		ExprNode callee = build(expr.callee);
+		ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = build(expr.arguments.get(i));
+		}
+		return new ExprNode.Call(expr.paren, callee, arguments);
+	}
+
+	@Override
+	public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+		return build(expr.expression);
+	}
+
+	@Override
+	public ExprNode visitLiteralExpr(Expr.Literal expr) {
+		return new ExprNode.Literal(expr.value);
+	}
+
+	@Override
+	public ExprNode visitLogicalExpr(Expr.Logical expr) {
+		ExprNode left = build(expr.left);
+		ExprNode right = build(expr.right);
+		if (expr.operator.type == TokenType.OR) {
+			return new ExprNode.Or(left, right);
+		}
+		return new ExprNode.And(left, right);
+	}
+
+	@Override
+	public ExprNode visitUnaryExpr(Expr.Unary expr) {
+		ExprNode operand = build(expr.right);
+		if (expr.operator.type == TokenType.MINUS) {
+			return new ExprNode.Negate(expr.operator, operand);
+		}
+		return new ExprNode.NotUninitialized(expr.operator, operand);
+	}
+
+	@Override
+	public ExprNode visitVariableExpr(Expr.Variable expr) {
+		if (expr.depth >= 0) {
+			return new ExprNode.LocalRead(expr.depth, expr.slot);
+		}
+		return new ExprNode.GlobalRead(globals, expr.name);
+	}
+}
@@ -0,0 +1,23 @@
+package lox;
+
+// INFO: the compiled form of a Lox function, shared by every closure
+// created from the same declaration
+class ObjFunction {
+	final String name;
+	final Chunk chunk = new Chunk();
+	int arity = 0;
+	int upvalueCount = 0;
+	// deepest the operand stack gets while running this function,
+	// counted from the callee slot
+	int maxStack = 1;
+
+	ObjFunction(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		if (name == null) return "<script>";
+		return "<fn " + name + ">";
+	}
+}
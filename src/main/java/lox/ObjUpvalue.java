@@ -0,0 +1,18 @@
+package lox;
+
+// INFO: an upvalue points at a stack slot while the captured variable
+// is still alive on the stack (open), and holds the value itself once
+// the variable goes out of scope (closed).
+class ObjUpvalue {
+	int slot;
+	boolean open = true;
+	Object closed;
+	double closedNumber;
+	// next open upvalue, lower on the stack
+	ObjUpvalue next;
+
+	ObjUpvalue(int slot, ObjUpvalue next) {
+		this.slot = slot;
+		this.next = next;
+	}
+}
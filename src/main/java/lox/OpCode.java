@@ -0,0 +1,47 @@
+package lox;
+
+// INFO: instruction set of the bytecode VM. Every opcode is one byte,
+// operands follow it in the code array: u16 operands are big-endian,
+// u8 operands are a single unsigned byte.
+final class OpCode {
+	static final byte CONSTANT      = 0;  // u16 constant index
+	static final byte NIL           = 1;
+	static final byte TRUE          = 2;
+	static final byte FALSE         = 3;
+	static final byte POP           = 4;
+	static final byte GET_LOCAL     = 5;  // u16 stack slot
+	static final byte SET_LOCAL     = 6;  // u16 stack slot
+	static final byte GET_GLOBAL    = 7;  // u16 global index
+	static final byte DEFINE_GLOBAL = 8;  // u16 global index
+	static final byte SET_GLOBAL    = 9;  // u16 global index
+	static final byte GET_UPVALUE   = 10; // u16 upvalue index
+	static final byte SET_UPVALUE   = 11; // u16 upvalue index
+	static final byte EQUAL         = 12;
+	static final byte NOT_EQUAL     = 13;
+	static final byte GREATER       = 14;
+	static final byte GREATER_EQUAL = 15;
+	static final byte LESS          = 16;
+	static final byte LESS_EQUAL    = 17;
+	static final byte ADD           = 18;
+	static final byte SUBTRACT      = 19;
+	static final byte MULTIPLY      = 20;
+	static final byte DIVIDE        = 21;
+	static final byte NOT           = 22;
+	static final byte NEGATE        = 23;
+	static final byte PRINT         = 24;
+	static final byte JUMP          = 25; // u16 forward offset
+	static final byte JUMP_IF_FALSE = 26; // u16 forward offset
+	static final byte LOOP          = 27; // u16 backward offset
+	static final byte CALL          = 28; // u8 argument count
+	static final byte CLOSURE       = 29; // u16 function constant, then
+	                                      // (u8 isLocal, u16 index) per upvalue
+	static final byte CLOSE_UPVALUE = 30;
+	static final byte RETURN        = 31;
+	// superinstructions, they save a dispatch on the hottest sequences
+	static final byte POP_JUMP_IF_FALSE = 32; // u16 forward offset
+	static final byte STORE_LOCAL   = 33; // u16 stack slot, pops the value
+	static final byte STORE_GLOBAL  = 34; // u16 global index, pops the value
+	static final byte STORE_UPVALUE = 35; // u16 upvalue index, pops the value
+
+	private OpCode() {}
+}
@@ -0,0 +1,471 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// INFO: an optional pass ("-O") rewriting the resolved AST before it
+// runs:
+// - operators over literals are folded, unless evaluating them would
+//   fail, then the error is still raised at runtime on the same line
+// - locals initialized with a constant and never assigned are replaced
+//   by that constant where they are read. Their declaration stays, so
+//   the slots the Resolver handed out don't move
+// - if and while statements with a constant condition are pruned
+// - calls to small functions that are known at the call site are
+//   inlined, see Inliner
+// The rewritten nodes carry over the resolution results of the nodes
+// they replace.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+	// the declaration behind every slot of the enclosing local scopes,
+	// a Stmt.Var or Stmt.Function, or null for parameters
+	private final List<List<Stmt>> scopes = new ArrayList<>();
+	private Assignments assignments;
+	// the folded value of every local that is never assigned
+	private final Map<Stmt.Var, Expr.Literal> constants = new HashMap<>();
+	// the optimized version of every function declared so far, and the
+	// global ones calls can be bound to
+	private final Map<Stmt.Function, Stmt.Function> functions =
+		new HashMap<>();
+	private final Map<String, Stmt.Function> globalFunctions =
+		new HashMap<>();
+	// functions whose body is being inlined right now
+	private final Set<Stmt.Function> inlining = new HashSet<>();
+	// in the REPL a later line can redefine any global
+	private final boolean bindGlobals;
+
+	Optimizer(boolean bindGlobals) {
+		this.bindGlobals = bindGlobals;
+	}
+
+	List<Stmt> optimize(List<Stmt> statements) {
+		assignments = new Assignments();
+		assignments.visit(statements);
+		return optimizeAll(statements);
+	}
+
+	private List<Stmt> optimizeAll(List<Stmt> statements) {
+		List<Stmt> result = new ArrayList<>(statements.size());
+		for (Stmt statement : statements) {
+			result.add(optimize(statement));
+		}
+		return result;
+	}
+
+	private Stmt optimize(Stmt stmt) {
+		return stmt.accept(this);
+	}
+
+	private Expr optimize(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private static boolean isConstant(Expr expr) {
+		return expr instanceof Expr.Literal;
+	}
+
+	private static Object valueOf(Expr expr) {
+		return ((Expr.Literal)expr).value;
+	}
+
+	// a statement doing nothing
+	private static Stmt empty() {
+		Stmt.Block block = new Stmt.Block(new ArrayList<>());
+		block.slots = 0;
+		return block;
+	}
+
+	private void declare(Stmt declaration) {
+		if (scopes.isEmpty()) return;
+		scopes.get(scopes.size() - 1).add(declaration);
+	}
+
+	private Stmt declarationOf(int depth, int slot) {
+		return scopes.get(scopes.size() - 1 - depth).get(slot);
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		scopes.add(new ArrayList<>());
+		Stmt.Block block = new Stmt.Block(optimizeAll(stmt.statements));
+		scopes.remove(scopes.size() - 1);
+		block.slots = stmt.slots;
+		block.cells = stmt.cells;
+		return block;
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		return new Stmt.Expression(optimize(stmt.expression));
+	}
+
+	@Override
+	public Stmt visitFunctionStmt(Stmt.Function stmt) {
+		declare(stmt);
+		List<Stmt> scope = new ArrayList<>();
+		for (int i = 0; i < stmt.params.size(); i++) scope.add(null);
+		scopes.add(scope);
+		Stmt.Function function = new Stmt.Function(stmt.name, stmt.params,
+			optimizeAll(stmt.body));
+		scopes.remove(scopes.size() - 1);
+		function.slots = stmt.slots;
+		function.local = stmt.local;
+		function.cells = stmt.cells;
+		function.upvalues = stmt.upvalues;
+
+		// calls inside the body were optimized before this, so a
+		// function never gets inlined into itself
+		functions.put(stmt, function);
+		String name = stmt.name.lexeme;
+		if (scopes.isEmpty() && bindGlobals &&
+				assignments.globalDeclarations.get(name) == 1 &&
+				!assignments.assignedGlobals.contains(name)) {
+			// only calls after the declaration see it, those can't run
+			// before the function is defined
+			globalFunctions.put(name, function);
+		}
+		return function;
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (isConstant(condition)) {
+			if (Interpreter.isTruthy(valueOf(condition))) {
+				return optimize(stmt.thenBranch);
+			}
+			if (stmt.elseBranch != null) return optimize(stmt.elseBranch);
+			return empty();
+		}
+		Stmt elseBranch = null;
+		if (stmt.elseBranch != null) elseBranch = optimize(stmt.elseBranch);
+		return new Stmt.If(condition, optimize(stmt.thenBranch), elseBranch);
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		return new Stmt.Print(optimize(stmt.expression));
+	}
+
+	@Override
+	public Stmt visitReturnStmt(Stmt.Return stmt) {
+		Expr value = null;
+		if (stmt.value != null) value = optimize(stmt.value);
+		Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+		// an inlined call is no call anymore
+		result.tailCall = stmt.tailCall && value instanceof Expr.Call;
+		return result;
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		Expr initializer = null;
+		if (stmt.initializer != null) initializer = optimize(stmt.initializer);
+		if (!assignments.assigned.contains(stmt)) {
+			if (initializer == null) {
+				constants.put(stmt, new Expr.Literal(null));
+			} else if (isConstant(initializer)) {
+				constants.put(stmt, (Expr.Literal)initializer);
+			}
+		}
+		// reads look the declaration up by the original node
+		declare(stmt);
+		Stmt.Var declaration = new Stmt.Var(stmt.name, initializer);
+		declaration.local = stmt.local;
+		return declaration;
+	}
+
+	@Override
+	public Stmt visitWhileStmt(Stmt.While stmt) {
+		Expr condition = optimize(stmt.condition);
+		if (isConstant(condition) &&
+				!Interpreter.isTruthy(valueOf(condition))) {
+			return empty();
+		}
+		return new Stmt.While(condition, optimize(stmt.body));
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		Expr.Assign assign = new Expr.Assign(expr.name, optimize(expr.value));
+		assign.depth = expr.depth;
+		assign.slot = expr.slot;
+		assign.local = expr.local;
+		assign.upvalue = expr.upvalue;
+		return assign;
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+		if (isConstant(left) && isConstant(right)) {
+			Object value = fold(expr.operator.type, valueOf(left),
+				valueOf(right));
+			if (value != null) return new Expr.Literal(value);
+		}
+		return new Expr.Binary(left, expr.operator, right);
+	}
+
+	// the value of the operator, or null when it would fail at runtime
+	private static Object fold(TokenType operator, Object left, Object right) {
+		switch (operator) {
+			case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+			case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+			case PLUS:
+				if (left instanceof String && right instanceof String) {
+					return (String)left + (String)right;
+				}
+				break;
+		}
+		if (!(left instanceof Double) || !(right instanceof Double)) {
+			return null;
+		}
+		double a = (double)left;
+		double b = (double)right;
+		switch (operator) {
+			case GREATER: return a > b;
+			case GREATER_EQUAL: return a >= b;
+			case LESS: return a < b;
+			case LESS_EQUAL: return a <= b;
+			case MINUS: return a - b;
+			case PLUS: return a + b;
+			case SLASH: return a / b;
+			case STAR: return a * b;
+		}
+		return null;
+	}
+
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+		for (Expr argument : expr.arguments) {
+			arguments.add(optimize(argument));
+		}
+		Expr callee = optimize(expr.callee);
+		Stmt.Function function = knownFunction(callee);
+		if (function != null && !inlining.contains(function)) {
+			Expr body = Inliner.inline(function, arguments);
+			if (body != null) {
+				// the substituted body may fold further
+				inlining.add(function);
+				body = optimize(body);
+				inlining.remove(function);
+				return body;
+			}
+		}
+		return new Expr.Call(callee, expr.paren, arguments);
+	}
+
+	// the function the callee is bound to for sure, or null
+	private Stmt.Function knownFunction(Expr callee) {
+		if (!(callee instanceof Expr.Variable)) return null;
+		Expr.Variable variable = (Expr.Variable)callee;
+		if (variable.depth < 0) {
+			return globalFunctions.get(variable.name.lexeme);
+		}
+		Stmt declaration = declarationOf(variable.depth, variable.slot);
+		if (declaration instanceof Stmt.Function &&
+				!assignments.assigned.contains(declaration)) {
+			return functions.get(declaration);
+		}
+		return null;
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = optimize(expr.expression);
+		if (isConstant(expression)) return expression;
+		return new Expr.Grouping(expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Expr.Logical expr) {
+		Expr left = optimize(expr.left);
+		Expr right = optimize(expr.right);
+		if (isConstant(left)) {
+			boolean truthy = Interpreter.isTruthy(valueOf(left));
+			if (expr.operator.type == TokenType.OR) {
+				return truthy ? left : right;
+			}
+			return truthy ? right : left;
+		}
+		return new Expr.Logical(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = optimize(expr.right);
+		if (isConstant(right)) {
+			Object value = valueOf(right);
+			if (expr.operator.type == TokenType.BANG) {
+				return new Expr.Literal(!Interpreter.isTruthy(value));
+			}
+			if (value instanceof Double) {
+				return new Expr.Literal(-(double)value);
+			}
+		}
+		return new Expr.Unary(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		if (expr.depth < 0) return expr;
+		Expr.Literal constant = constants.get(
+			declarationOf(expr.depth, expr.slot));
+		if (constant != null) return constant;
+		return expr;
+	}
+
+	// INFO: first pass, finds the locals that are assigned somewhere.
+	// It tracks the declarations behind the slots the same way. For
+	// globals it counts the declarations of each name and notes the
+	// assigned ones.
+	private static class Assignments implements Expr.Visitor<Void>,
+			Stmt.Visitor<Void> {
+		final Set<Stmt> assigned = new HashSet<>();
+		final Map<String, Integer> globalDeclarations = new HashMap<>();
+		final Set<String> assignedGlobals = new HashSet<>();
+		private final List<List<Stmt>> scopes = new ArrayList<>();
+
+		void visit(List<Stmt> statements) {
+			for (Stmt statement : statements) {
+				statement.accept(this);
+			}
+		}
+
+		private void visit(Expr expr) {
+			expr.accept(this);
+		}
+
+		private void declare(Stmt declaration, Token name) {
+			if (scopes.isEmpty()) {
+				globalDeclarations.merge(name.lexeme, 1, Integer::sum);
+				return;
+			}
+			scopes.get(scopes.size() - 1).add(declaration);
+		}
+
+		@Override
+		public Void visitBlockStmt(Stmt.Block stmt) {
+			scopes.add(new ArrayList<>());
+			visit(stmt.statements);
+			scopes.remove(scopes.size() - 1);
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Stmt.Expression stmt) {
+			visit(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitFunctionStmt(Stmt.Function stmt) {
+			declare(stmt, stmt.name);
+			List<Stmt> scope = new ArrayList<>();
+			for (int i = 0; i < stmt.params.size(); i++) scope.add(null);
+			scopes.add(scope);
+			visit(stmt.body);
+			scopes.remove(scopes.size() - 1);
+			return null;
+		}
+
+		@Override
+		public Void visitIfStmt(Stmt.If stmt) {
+			visit(stmt.condition);
+			stmt.thenBranch.accept(this);
+			if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Stmt.Print stmt) {
+			visit(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitReturnStmt(Stmt.Return stmt) {
+			if (stmt.value != null) visit(stmt.value);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Stmt.Var stmt) {
+			if (stmt.initializer != null) visit(stmt.initializer);
+			declare(stmt, stmt.name);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStmt(Stmt.While stmt) {
+			visit(stmt.condition);
+			stmt.body.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr) {
+			visit(expr.value);
+			if (expr.depth >= 0) {
+				assigned.add(scopes.get(scopes.size() - 1 - expr.depth)
+					.get(expr.slot));
+			} else {
+				assignedGlobals.add(expr.name.lexeme);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr) {
+			visit(expr.left);
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Expr.Call expr) {
+			visit(expr.callee);
+			for (Expr argument : expr.arguments) visit(argument);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr) {
+			visit(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr) {
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Expr.Logical expr) {
+			visit(expr.left);
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr) {
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr) {
+			return null;
+		}
+	}
+}
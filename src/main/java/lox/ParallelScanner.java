@@ -0,0 +1,122 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static lox.TokenType.*;
+
+// INFO: scans a big source on all cores. The source is cut into chunks
+// right after a newline and the chunks are scanned at the same time, on
+// the common ForkJoinPool, each as if it started outside of any token.
+// That holds for every token but strings: a comment ends at the newline
+// and nothing else spans one. So a chunk is only wrong when a string of
+// the chunk before it is still open at the cut, it is then scanned
+// again from the start of that string. The line a chunk starts at is
+// one plus the newlines before it, known before scanning. Errors are
+// reported once the chunks are put together, in the order the Scanner
+// would have reported them.
+final class ParallelScanner {
+	// smaller sources aren't worth the threads
+	static final int MIN_CHUNK = 1 << 16;
+
+	private static final CharScan SCAN = CharScan.get();
+
+	private final char[] source;
+	// chunk i goes from starts[i] up to starts[i + 1]
+	private final int[] starts;
+	// the line at starts[i]
+	private final int[] lines;
+	private final Chunk[] chunks;
+
+	private ParallelScanner(char[] source, int chunkSize) {
+		this.source = source;
+		this.starts = cut(source, chunkSize);
+		this.lines = new int[starts.length];
+		this.chunks = new Chunk[starts.length - 1];
+	}
+
+	// the same tokens as new Scanner(source).scanTokens()
+	static TokenBuffer scanTokens(String source) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int chunkSize = Math.max(MIN_CHUNK, source.length() / (cores * 4));
+		if (cores == 1 || source.length() < 2 * chunkSize) {
+			return new Scanner(source).scanTokens();
+		}
+		return scanTokens(source.toCharArray(), chunkSize);
+	}
+
+	static TokenBuffer scanTokens(char[] source, int chunkSize) {
+		return new ParallelScanner(source, chunkSize).scan();
+	}
+
+	// the chunk starts, each one right after a newline, followed by the
+	// length of the source
+	private static int[] cut(char[] source, int chunkSize) {
+		int[] starts = new int[source.length / chunkSize + 2];
+		int count = 1;
+		int at = chunkSize;
+		while (at < source.length) {
+			int newline = SCAN.indexOf(source, at, source.length, '\n');
+			if (newline + 1 >= source.length) break;
+			starts[count++] = newline + 1;
+			at = newline + 1 + chunkSize;
+		}
+		starts[count++] = source.length;
+		return Arrays.copyOf(starts, count);
+	}
+
+	private TokenBuffer scan() {
+		IntStream.range(0, chunks.length).parallel().forEach(i ->
+			lines[i + 1] = SCAN.count(source, starts[i], starts[i + 1], '\n'));
+		lines[0] = 1;
+		for (int i = 1; i < lines.length; i++) lines[i] += lines[i - 1];
+
+		IntStream.range(0, chunks.length).parallel().forEach(i ->
+			chunks[i] = new Chunk(starts[i], i));
+
+		TokenBuffer tokens = new TokenBuffer(source);
+		int next = 0;
+		while (next < chunks.length) {
+			Chunk chunk = chunks[next++];
+			chunk.addTo(tokens);
+			// scan again from the open string to the end of the chunk
+			// it's closed in, the chunks it covers were scanned wrong
+			while (chunk.scanner.openString >= 0) {
+				int from = chunk.scanner.openString;
+				int quote = SCAN.indexOf(source, from + 1, source.length, '"');
+				int closing = chunkOf(quote);
+				chunk = new Chunk(from, closing);
+				chunk.addTo(tokens);
+				next = closing + 1;
+			}
+		}
+		tokens.add(EOF, source.length, 0, lines[lines.length - 1]);
+		return tokens;
+	}
+
+	// the chunk position is in, the last one for the end of the source
+	private int chunkOf(int position) {
+		int index = Arrays.binarySearch(starts, position);
+		if (index < 0) index = -index - 2;
+		return Math.min(index, chunks.length - 1);
+	}
+
+	// the tokens from a position up to the end of a chunk
+	private class Chunk {
+		final Scanner scanner;
+		final TokenBuffer tokens = new TokenBuffer(source);
+
+		Chunk(int from, int chunk) {
+			int first = chunkOf(from);
+			int line = lines[first] + SCAN.count(source, starts[first], from, '\n');
+			scanner = new Scanner(source, from, starts[chunk + 1], line,
+				chunk != chunks.length - 1);
+			scanner.scanInto(tokens);
+		}
+
+		void addTo(TokenBuffer all) {
+			all.addAll(tokens);
+			for (Runnable error : scanner.errors) error.run();
+		}
+	}
+}
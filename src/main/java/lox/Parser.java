@@ -48,11 +48,45 @@ import static lox.TokenType.*;
 class Parser {
 	private static class ParseError extends RuntimeException {}
 
-	private final List<Token> tokens;
+	// INFO: the tokens come either from a TokenBuffer holding them all,
+	// or pulled from a Scanner as parsing goes. The grammar only ever
+	// looks one token ahead, so from a Scanner only that token and the
+	// one just consumed are kept. From a TokenBuffer the parser reads
+	// the types and only makes Token objects for the tokens it keeps or
+	// reports.
+	private final TokenBuffer tokens;
 	private int current = 0;
 
-	Parser(List<Token> tokens) {
+	private final Scanner scanner;
+	private Token previous = null;
+	private Token next = null;
+
+	// INFO: a lazy parser only skims the body of a function, LazyBody
+	// parses it when the function is first called. That needs the
+	// tokens to still be there, so it only parses from a TokenBuffer.
+	private final boolean lazy;
+
+	Parser(TokenBuffer tokens) {
+		this(tokens, false);
+	}
+
+	Parser(TokenBuffer tokens, boolean lazy) {
 		this.tokens = tokens;
+		this.scanner = null;
+		this.lazy = lazy;
+	}
+
+	// parses the body of a skimmed function, starting after its "{"
+	Parser(TokenBuffer tokens, int start) {
+		this(tokens, true);
+		this.current = start;
+	}
+
+	Parser(Scanner scanner) {
+		this.tokens = null;
+		this.scanner = scanner;
+		this.next = scanner.nextToken();
+		this.lazy = false;
 	}
 
 
@@ -63,6 +97,15 @@ class Parser {
 		}
 		return statements;
 	}
+
+	// the statements of a skimmed body, null when it has a syntax error
+	List<Stmt> parseBody() {
+		try {
+			return block();
+		} catch (ParseError error) {
+			return null;
+		}
+	}
 	// Expr parse() {
 	// 	try {
 	// 		return expression();
@@ -205,10 +248,35 @@ class Parser {
 		}
 		consume(RIGHT_PAREN, "Expect ')' after parameters.");
 		consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+		if (lazy) {
+			int end = closingBrace(current);
+			// a body without its "}" is parsed now, to report that
+			if (end >= 0) {
+				Stmt.Function function = new Stmt.Function(name, parameters,
+					new ArrayList<>());
+				function.lazy = new LazyBody(tokens, current, end);
+				current = end + 1;
+				return function;
+			}
+		}
 		List<Stmt> body = block();
 		return new Stmt.Function(name, parameters, body);
 	}
 
+	// the index of the "}" closing the block starting at index, or -1
+	private int closingBrace(int index) {
+		int depth = 1;
+		for (; index < tokens.size(); index++) {
+			TokenType type = tokens.type(index);
+			if (type == LEFT_BRACE) {
+				depth++;
+			} else if (type == RIGHT_BRACE && --depth == 0) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
 	// block          → "{" declaration* "}" ;
 	private List<Stmt> block() {
 		List<Stmt> statements = new ArrayList<>();
@@ -220,9 +288,32 @@ class Parser {
 		return statements;
 	}
 
-	// assignment     → IDENTIFIER "=" assignment | equality ;
+	// INFO: every binary operator, "or" down to "*", is parsed by
+	// binary() from the binding power of its token type instead of by a
+	// method of its own per precedence level, so an operand no longer
+	// goes down through six calls before it reaches unary(). The operator
+	// parsed is looked up in BINDING by the next token type, no match()
+	// call is needed to find it. The trees are the same: every level is
+	// left-associative, so the right operand of an operator is parsed
+	// with a binding power one higher than its own.
+	private static final int[] BINDING = new int[TokenType.values().length];
+
+	static {
+		bind(1, OR);
+		bind(2, AND);
+		bind(3, BANG_EQUAL, EQUAL_EQUAL);
+		bind(4, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
+		bind(5, MINUS, PLUS);
+		bind(6, SLASH, STAR);
+	}
+
+	private static void bind(int power, TokenType... types) {
+		for (TokenType type : types) BINDING[type.ordinal()] = power;
+	}
+
+	// assignment     → IDENTIFIER "=" assignment | logic_or ;
 	private Expr assignment() {
-		Expr expr = or();
+		Expr expr = binary(1);
 
 		if (match(EQUAL)) {
 			Token equals = previous();
@@ -236,81 +327,33 @@ class Parser {
 		return expr;
 	}
 
-	// logic_or       → logic_and ( "or" logic_and )* ;
-	private Expr or() {
-		Expr expr = and();
-
-		while (match(OR)) {
-			Token operator = previous();
-			Expr right = and();
-			expr = new Expr.Logical(expr, operator, right);
-		}
-		return expr;
-	}
-
-	// logic_and      → equality ( "and" equality )* ;
-	private Expr and() {
-		Expr expr = equality();
-
-		while (match(AND)) {
-			Token operator = previous();
-			Expr right = equality();
-			expr = new Expr.Logical(expr, operator, right);
-		}
-		return expr;
-	}
-
-	// equality       → comparison ( ( "!=" | "==" ) comparison )* ;
-	private Expr equality() {
-		Expr expr = comparison();
-
-		while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-			Token operator = previous();
-			Expr right = comparison();
-			expr = new Expr.Binary(expr, operator, right);
-		}
-		return expr;
-	}
-
-	// comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
-	private Expr comparison() {
-		Expr expr = term();
-
-		while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-			Token operator = previous();
-			Expr right = term();
-			expr = new Expr.Binary(expr, operator, right);
-		}
-		return expr;
-	}
-
-	// term           → factor ( ( "-" | "+" ) factor )* ;
-	private Expr term() {
-		Expr expr = factor();
-
-		while (match(MINUS, PLUS)) {
-			Token operator = previous();
-			Expr right = factor();
-			expr = new Expr.Binary(expr, operator, right);
-		}
-		return expr;
-	}
-
-	// factor         → unary ( ( "/" | "*" ) unary )* ;
-	private Expr factor() {
+	// logic_or down to factor, the operators binding at least as tight
+	// as power
+	private Expr binary(int power) {
 		Expr expr = unary();
 
-		while (match(SLASH, STAR)) {
+		while (true) {
+			TokenType type = peekType();
+			// 0 for all the tokens that aren't a binary operator
+			int binding = BINDING[type.ordinal()];
+			if (binding < power) break;
+			advance();
 			Token operator = previous();
-			Expr right = unary();
-			expr = new Expr.Binary(expr, operator, right);
+			Expr right = binary(binding + 1);
+			if (type == OR || type == AND) {
+				expr = new Expr.Logical(expr, operator, right);
+			} else {
+				expr = new Expr.Binary(expr, operator, right);
+			}
 		}
 		return expr;
 	}
 
 	// unary          → ( "!" | "-" ) unary | call ;
 	private Expr unary() {
-		if (match(BANG, MINUS)) {
+		TokenType type = peekType();
+		if (type == BANG || type == MINUS) {
+			advance();
 			Token operator = previous();
 			Expr right = unary();
 			return new Expr.Unary(operator, right);
@@ -336,12 +379,8 @@ class Parser {
 	private Expr call() {
 		Expr expr = primary();
 
-		while (true) {
-			if (match(LEFT_PAREN)) {
-				expr = finishCall(expr);
-			} else {
-				break;
-			}
+		while (match(LEFT_PAREN)) {
+			expr = finishCall(expr);
 		}
 		return expr;
 	}
@@ -349,59 +388,80 @@ class Parser {
 	// primary        → NUMBER | STRING | "true" | "false" | "nil"
 	//                | "(" expression ")" | IDENTIFIER ;
 	private Expr primary() {
-		if (match(TRUE)) return new Expr.Literal(true);
-		else if (match(FALSE)) return new Expr.Literal(false);
-		else if (match(NIL)) return new Expr.Literal(null);
-
-		else if (match(STRING, NUMBER))
-			return new Expr.Literal(previous().literal);
-		else if (match(IDENTIFIER)) {
-			return new Expr.Variable(previous());
-		}
-		else if (match(LEFT_PAREN)) {
-			Expr expr = expression();
-			consume(RIGHT_PAREN, "Expect ')' after expression.");
-			return new Expr.Grouping(expr);
+		switch (peekType()) {
+			case TRUE:
+				advance();
+				return new Expr.Literal(true);
+			case FALSE:
+				advance();
+				return new Expr.Literal(false);
+			case NIL:
+				advance();
+				return new Expr.Literal(null);
+			case STRING:
+			case NUMBER:
+				advance();
+				return new Expr.Literal(previous().literal);
+			case IDENTIFIER:
+				advance();
+				return new Expr.Variable(previous());
+			case LEFT_PAREN:
+				advance();
+				Expr expr = expression();
+				consume(RIGHT_PAREN, "Expect ')' after expression.");
+				return new Expr.Grouping(expr);
+			default:
+				throw error(peek(), "Expect expression.");
 		}
-		throw error(peek(), "Expect expression.");
 	}
 
-	private boolean match(TokenType... types) {
-		for (TokenType type : types) {
-			if (check(type)) {
-				advance();
-				return true;
-			}
-		}
-		return false;
+	private boolean match(TokenType type) {
+		if (!check(type)) return false;
+		advance();
+		return true;
 	}
 
 	private Token consume(TokenType type, String message) {
-		if (check(type)) return advance();
+		if (check(type)) {
+			advance();
+			return previous();
+		}
 
 		throw error(peek(), message);
 	}
 
 	private boolean check(TokenType type) {
 		if (isAtEnd()) return false;
-		return peek().type == type;
+		return peekType() == type;
 	}
 
-	private Token advance() {
-		if (!isAtEnd()) current++;
-		return previous();
+	private void advance() {
+		if (isAtEnd()) return;
+		if (tokens != null) {
+			current++;
+		} else {
+			previous = next;
+			next = scanner.nextToken();
+		}
 	}
 
 	private boolean isAtEnd() {
-		return peek().type == EOF;
+		return peekType() == EOF;
+	}
+
+	private TokenType peekType() {
+		if (tokens != null) return tokens.type(current);
+		return next.type;
 	}
 
 	private Token peek() {
-		return tokens.get(current);
+		if (tokens != null) return tokens.token(current);
+		return next;
 	}
 
 	private Token previous() {
-		return tokens.get(current - 1);
+		if (tokens != null) return tokens.token(current - 1);
+		return previous;
 	}
 
 	private ParseError error(Token token, String message) {
@@ -421,7 +481,7 @@ class Parser {
 		advance();
 		while (!isAtEnd()) {
 			if (previous().type == SEMICOLON) return;
-			switch (peek().type) {
+			switch (peekType()) {
 				case CLASS:
 				case FUN:
 				case VAR:
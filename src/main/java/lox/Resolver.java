@@ -1,24 +1,94 @@
 package lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-	private final Interpreter interpreter;
-	private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+	private final Stack<Map<String, Local>> scopes = new Stack<>();
 	private FunctionType currentFunction = FunctionType.NONE;
-
-	Resolver(Interpreter interpreter) {
-		this.interpreter = interpreter;
-	}
+	// the frame of the function being resolved, null outside of any
+	// function and block
+	private Frame frame = null;
+	// the upvalues of a lazy function, found when it was skimmed
+	private final Frame skimmed;
 
 	private enum FunctionType {
 		NONE,
 		FUNCTION
 	}
 
+	// INFO: each local gets the next free slot of its scope, in the
+	// same order the Interpreter will define it at runtime
+	private static class Local {
+		final int slot;
+		// the index in the frame, for the flat frames of the Interpreter
+		final Frame frame;
+		final int index;
+		boolean defined = false;
+		boolean captured = false;
+
+		Local(int slot, Frame frame) {
+			this.slot = slot;
+			this.frame = frame;
+			this.index = frame.locals.size();
+			frame.locals.add(this);
+		}
+	}
+
+	// INFO: the Interpreter keeps all the locals of a function, from any
+	// of its blocks, in one flat frame. Outside of functions, the
+	// outermost block gets a frame of its own. A local that a nested
+	// function uses is captured: the frame keeps it in a Cell, and the
+	// closure of every function from the nested one up to the one
+	// declaring it holds that Cell as an upvalue. Locals that are never
+	// captured stay in the frame as they are, and closures hold nothing
+	// else, neither the frame nor the Environment chain.
+	private static class Frame {
+		final Frame enclosing;
+		final List<Local> locals = new ArrayList<>();
+		// the locals of enclosing frames that are used here, and where a
+		// closure gets each one when it's created: the index of a local
+		// of the enclosing frame, or -1 - i for upvalue i of the
+		// enclosing function
+		final List<Local> captures = new ArrayList<>();
+		final List<Integer> upvalues = new ArrayList<>();
+
+		Frame(Frame enclosing) {
+			this.enclosing = enclosing;
+		}
+
+		boolean[] cells() {
+			boolean[] cells = new boolean[locals.size()];
+			for (int i = 0; i < cells.length; i++) {
+				cells[i] = locals.get(i).captured;
+			}
+			return cells;
+		}
+
+		int[] upvalues() {
+			int[] result = new int[upvalues.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = upvalues.get(i);
+			}
+			return result;
+		}
+	}
+
+	Resolver() {
+		this.skimmed = null;
+	}
+
+	// resolves in copies of scopes, only the names declared so far
+	private Resolver(Stack<Map<String, Local>> scopes, Frame skimmed) {
+		for (Map<String, Local> scope : scopes) {
+			this.scopes.push(new HashMap<>(scope));
+		}
+		this.skimmed = skimmed;
+	}
+
 	void resolve(List<Stmt> statements) {
 		for (Stmt statement : statements) {
 			resolve(statement);
@@ -29,57 +99,129 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		expr.accept(this);
 	}
 
-	private void resolveFunction(
-			Stmt.Function function, FunctionType type) {
+	private void resolveFunction(Stmt.Function function, FunctionType type,
+			Frame functionFrame) {
 		FunctionType enclosingFunction = currentFunction;
 		currentFunction = type;
+		Frame enclosingFrame = frame;
+		frame = functionFrame;
 		beginScope();
 		for (Token param : function.params) {
 			declare(param);
 			define(param);
 		}
 		resolve(function.body);
+		function.slots = scopes.peek().size();
 		endScope();
+		function.cells = frame.cells();
+		function.upvalues = frame.upvalues();
+		frame = enclosingFrame;
 		currentFunction = enclosingFunction;
 	}
 
+	// the body of a lazy function, once LazyBody parsed it. It can only
+	// capture what it was found to capture when it was skimmed.
+	void resolveBody(Stmt.Function function) {
+		Frame functionFrame = new Frame(skimmed.enclosing);
+		functionFrame.captures.addAll(skimmed.captures);
+		functionFrame.upvalues.addAll(skimmed.upvalues);
+		resolveFunction(function, FunctionType.FUNCTION, functionFrame);
+	}
+
+	// the index of local among the upvalues of function, which is
+	// nested in the function declaring it. The functions in between
+	// capture it too.
+	private int upvalue(Frame function, Local local) {
+		int index = function.captures.indexOf(local);
+		if (index >= 0) return index;
+		int upvalue;
+		if (function.enclosing == local.frame) {
+			local.captured = true;
+			upvalue = local.index;
+		} else {
+			upvalue = -1 - upvalue(function.enclosing, local);
+		}
+		function.captures.add(local);
+		function.upvalues.add(upvalue);
+		return function.captures.size() - 1;
+	}
+
 	private void beginScope() {
-		scopes.push(new HashMap<String, Boolean>());
+		scopes.push(new HashMap<String, Local>());
 	}
 
 	private void endScope() {
 		scopes.pop();
 	}
 
-	private void declare(Token name) {
-		if (scopes.isEmpty()) return;
-		Map<String, Boolean> scope = scopes.peek();
+	// returns the index of the local in its frame, or -1 for a global
+	private int declare(Token name) {
+		if (scopes.isEmpty()) return -1;
+		Map<String, Local> scope = scopes.peek();
 		if (scope.containsKey(name.lexeme)) {
 			Lox.error(name,
 				"Already a variable with this name in this scope.");
 		}
-		scope.put(name.lexeme, false);
+		Local local = new Local(scope.size(), frame);
+		scope.put(name.lexeme, local);
+		return local.index;
 	}
 
 	private void define(Token name) {
 		if (scopes.isEmpty()) return;
-		scopes.peek().put(name.lexeme, true);
+		scopes.peek().get(name.lexeme).defined = true;
 	}
 
-	private void resolveLocal(Expr expr, Token name) {
+	// returns the index of the innermost scope declaring the name, or -1
+	// when it is not declared locally and the node stays a global access
+	private int resolveLocal(String name) {
 		for (int i = scopes.size() - 1; i >= 0; i--) {
-			if (scopes.get(i).containsKey(name.lexeme)) {
-				interpreter.resolve(expr, scopes.size() - 1 - i);
-				return;
-			}
+			if (scopes.get(i).containsKey(name)) return i;
+		}
+		return -1;
+	}
+
+	// stores where the Variable or Assign expr finds the local it names,
+	// in the frame or through an upvalue. A global keeps the defaults.
+	private void resolveLocal(Expr expr, Token name) {
+		int scope = resolveLocal(name.lexeme);
+		if (scope < 0) return;
+		Local local = scopes.get(scope).get(name.lexeme);
+		int depth = scopes.size() - 1 - scope;
+		int index = -1;
+		int upvalue = -1;
+		if (local.frame == frame) {
+			index = local.index;
+		} else {
+			upvalue = upvalue(frame, local);
+		}
+		if (expr instanceof Expr.Assign) {
+			Expr.Assign assign = (Expr.Assign)expr;
+			assign.depth = depth;
+			assign.slot = local.slot;
+			assign.local = index;
+			assign.upvalue = upvalue;
+		} else {
+			Expr.Variable variable = (Expr.Variable)expr;
+			variable.depth = depth;
+			variable.slot = local.slot;
+			variable.local = index;
+			variable.upvalue = upvalue;
 		}
 	}
 
 	@Override
 	public Void visitBlockStmt(Stmt.Block stmt) {
+		boolean outermost = frame == null;
+		if (outermost) frame = new Frame(null);
 		beginScope();
 		resolve(stmt.statements);
+		stmt.slots = scopes.peek().size();
 		endScope();
+		if (outermost) {
+			stmt.cells = frame.cells();
+			frame = null;
+		}
 		return null;
 	}
 
@@ -91,9 +233,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitFunctionStmt(Stmt.Function stmt) {
-		declare(stmt.name);
+		stmt.local = declare(stmt.name);
 		define(stmt.name);
-		resolveFunction(stmt, FunctionType.FUNCTION);
+		if (stmt.lazy != null) {
+			// resolved when it's parsed, in the scopes as they are here.
+			// The cells of the enclosing frames have to be known before
+			// that, so every name in the body that is a local here is
+			// taken to be captured.
+			Frame body = new Frame(frame);
+			for (String name : stmt.lazy.names()) {
+				int scope = resolveLocal(name);
+				if (scope >= 0) upvalue(body, scopes.get(scope).get(name));
+			}
+			stmt.upvalues = body.upvalues();
+			stmt.lazy.resolver = new Resolver(scopes, body);
+			return null;
+		}
+		resolveFunction(stmt, FunctionType.FUNCTION, new Frame(frame));
 		return null;
 	}
 
@@ -116,12 +272,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		if (stmt.value != null) {
 			resolve(stmt.value);
 		}
+		// whatever the call returns is returned as is, so the caller's
+		// frame isn't needed anymore while it runs
+		stmt.tailCall = currentFunction != FunctionType.NONE &&
+			stmt.value instanceof Expr.Call;
 		return null;
 	}
 
 	@Override
 	public Void visitVarStmt(Stmt.Var stmt) {
-		declare(stmt.name);
+		stmt.local = declare(stmt.name);
 		if (stmt.initializer != null) {
 			resolve(stmt.initializer);
 		}
@@ -186,8 +346,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitVariableExpr(Expr.Variable expr) {
-		if (!scopes.isEmpty() &&
-		scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+		if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme) &&
+		!scopes.peek().get(expr.name.lexeme).defined) {
 			Lox.error(expr.name,
 				"Can't read local variable in its own initializer.");
 		}
@@ -1,10 +1,27 @@
 package lox;
 
+// INFO: thrown by a return in the nodes and lambda engines. The tree and
+// tiered engines hand it over without throwing it, and only for tail
+// calls, see Interpreter.Completion.
 class Return extends RuntimeException {
 	final Object value;
+	// set for a tail call: the function to call next in place of the
+	// one returning and the frame holding its arguments, see
+	// LoxFunction.run()
+	final LoxFunction callee;
+	final Object[] frame;
 
 	Return(Object value) {
 		super(null, null, false, false);
 		this.value = value;
+		this.callee = null;
+		this.frame = null;
+	}
+
+	Return(LoxFunction callee, Object[] frame) {
+		super(null, null, false, false);
+		this.value = null;
+		this.callee = callee;
+		this.frame = frame;
 	}
 }
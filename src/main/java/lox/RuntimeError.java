@@ -2,9 +2,18 @@ package lox;
 
 class RuntimeError extends RuntimeException {
 	final Token token;
+	final int line;
 
 	RuntimeError(Token token, String message) {
 		super(message);
 		this.token = token;
+		this.line = token.line;
+	}
+
+	// the bytecode VM only keeps line numbers, not tokens
+	RuntimeError(int line, String message) {
+		super(message);
+		this.token = null;
+		this.line = line;
 	}
 }
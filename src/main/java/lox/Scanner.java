@@ -1,57 +1,130 @@
 package lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.List;
 
 import static lox.TokenType.*;
 
 class Scanner {
-	private final String source;
-	private final List<Token> tokens = new ArrayList<>();
-	private static final Map <String, TokenType> keywords;
+	private static final int BUFFER_SIZE = 8192;
+	// finds the ends of comments, strings and blank runs
+	private static final CharScan SCAN = CharScan.get();
+
+	// INFO: the source code is scanned through a window of characters.
+	// When the scanner reads from a Reader, buffer only holds the text
+	// from the start of the current lexeme up to limit, and fill() slides
+	// it along the input as the scanner needs more. A String source is
+	// in the buffer as a whole and reader is null.
+	private final Reader reader;
+	private char[] buffer;
+	private int limit;
+	private boolean drained = false;
+
+	// INFO: a chunk of a source scanned by ParallelScanner ends before
+	// the source does. A string still open at the end of the chunk goes
+	// on in the next one, openString tells ParallelScanner where it
+	// starts. Errors are kept in errors, to be reported in order once
+	// the chunks are put together.
+	private final boolean chunk;
+	int openString = -1;
+	final List<Runnable> errors;
 
 	// INFO: these fields are to hel the loop keep track
-	// of where the scanner is in the source code
+	// of where the scanner is in the buffer
 	private int start = 0;
 	private int current = 0;
 	private int line = 1;
-
-	static {
-		keywords = new HashMap<>();
-		keywords.put("and",    AND);
-		keywords.put("class",  CLASS);
-		keywords.put("else",   ELSE);
-		keywords.put("false",  FALSE);
-		keywords.put("for",    FOR);
-		keywords.put("fun",    FUN);
-		keywords.put("if",     IF);
-		keywords.put("nil",    NIL);
-		keywords.put("or",     OR);
-		keywords.put("print",  PRINT);
-		keywords.put("return", RETURN);
-		keywords.put("super",  SUPER);
-		keywords.put("this",   THIS);
-		keywords.put("true",   TRUE);
-		keywords.put("var",    VAR);
-		keywords.put("while",  WHILE);
-	}
+	// the type of the token scanToken() found, null for whitespace and
+	// comments
+	private TokenType type = null;
+	// the lexemes nextToken() makes, other than strings and numbers
+	private final SymbolTable symbols = new SymbolTable();
 
 	// constractor
 	Scanner(String source) {
 		// source is the source code
-		this.source = source;
+		this.reader = null;
+		this.buffer = source.toCharArray();
+		this.limit = buffer.length;
+		this.chunk = false;
+		this.errors = null;
+	}
+
+	// scans source[from] up to source[to], line is the line at from.
+	// chunk is true when the source goes on after to.
+	Scanner(char[] source, int from, int to, int line, boolean chunk) {
+		this.reader = null;
+		this.buffer = source;
+		this.start = from;
+		this.current = from;
+		this.limit = to;
+		this.line = line;
+		this.chunk = chunk;
+		this.errors = new ArrayList<>();
+	}
+
+	// reads the source code as the tokens are asked for, the reader is
+	// left open
+	Scanner(Reader reader) {
+		this.reader = reader;
+		this.buffer = new char[BUFFER_SIZE];
+		this.limit = 0;
+		this.chunk = false;
+		this.errors = null;
+	}
+
+	// all the tokens at once, ending with EOF. The buffer keeps the
+	// source text the tokens point into, so all of it is read first.
+	TokenBuffer scanTokens() {
+		while (fill()) {}
+		TokenBuffer tokens = new TokenBuffer(buffer);
+		scanInto(tokens);
+		tokens.add(EOF, current, 0, line);
+		return (tokens);
 	}
 
-	List<Token> scanTokens() {
-		while (!isAtEnd()) {
+	// adds the tokens up to the end to tokens, without the EOF
+	void scanInto(TokenBuffer tokens) {
+		TokenType type;
+		while ((type = scan()) != EOF) {
+			tokens.add(type, start, current - start, line);
+		}
+	}
+
+	// the next token of the source, EOF once it's all scanned. Read
+	// errors are thrown as UncheckedIOException.
+	Token nextToken() {
+		TokenType type = scan();
+		String text;
+		if (type == STRING || type == NUMBER) {
+			text = lexeme();
+		} else {
+			text = symbols.intern(buffer, start, current - start);
+		}
+		Object literal = null;
+		if (type == NUMBER) literal = Double.parseDouble(text);
+		// trim sourounding quotes
+		if (type == STRING) literal = text.substring(1, text.length() - 1);
+		return new Token(type, text, literal, line);
+	}
+
+	// skips to the next token and returns its type, its lexeme goes
+	// from start to current
+	private TokenType scan() {
+		type = null;
+		while (type == null) {
+			// skip a run of blanks at once, scanToken() takes care of
+			// the ones at the end of the buffer
+			current = SCAN.skipBlanks(buffer, current, limit);
 			// We are at the beginning of the next lexeme
 			start = current;
+			if (isAtEnd()) return EOF;
 			scanToken();
 		}
-		tokens.add(new Token(EOF, "", null, line));
-		return (tokens);
+		return type;
 	}
 
 	private void scanToken() {
@@ -78,8 +151,11 @@ class Scanner {
 			case '/':
 				if (match('/')) {
 					// comment goes all the way to '\n'
-					while (peek() != '\n' && !isAtEnd()) {
-						advance();
+					while (true) {
+						// nothing of a comment has to stay in the buffer
+						start = current;
+						current = SCAN.indexOf(buffer, current, limit, '\n');
+						if (current < limit || isAtEnd()) break;
 					}
 				} else {
 					addToken(SLASH);
@@ -102,7 +178,7 @@ class Scanner {
 				} else if (isAlpha(c)) {
 					identifier();
 				} else {
-					Lox.error(line, "Unexpected character.");
+					error(line, "Unexpected character.");
 				}
 				break;
 		}
@@ -117,11 +193,54 @@ class Scanner {
 		// like befaure we will match the first two characters 'or' and
 		// leave 'ichid'. To fix that we use a concept called "maximal munch"
 		// will consume the entier word and check if its a keyword
-		// wee will use a hashmap for that (look at the keywords object above)
-		String text = source.substring(start, current);
-		TokenType type = keywords.get(text);
-		if (type == null) type = IDENTIFIER;
-		addToken(type);
+		// (see keyword() below, it checks the characters where they are)
+		addToken(keyword());
+	}
+
+	// INFO: the keyword the identifier just scanned is, or IDENTIFIER.
+	// A trie spelled out as switches: the first letter or two pick the
+	// only keyword it can be, then the rest is compared in the buffer.
+	private TokenType keyword() {
+		switch (buffer[start]) {
+			case 'a': return checkKeyword(1, "nd", AND);
+			case 'c': return checkKeyword(1, "lass", CLASS);
+			case 'e': return checkKeyword(1, "lse", ELSE);
+			case 'f':
+				if (current - start > 1) {
+					switch (buffer[start + 1]) {
+						case 'a': return checkKeyword(2, "lse", FALSE);
+						case 'o': return checkKeyword(2, "r", FOR);
+						case 'u': return checkKeyword(2, "n", FUN);
+					}
+				}
+				break;
+			case 'i': return checkKeyword(1, "f", IF);
+			case 'n': return checkKeyword(1, "il", NIL);
+			case 'o': return checkKeyword(1, "r", OR);
+			case 'p': return checkKeyword(1, "rint", PRINT);
+			case 'r': return checkKeyword(1, "eturn", RETURN);
+			case 's': return checkKeyword(1, "uper", SUPER);
+			case 't':
+				if (current - start > 1) {
+					switch (buffer[start + 1]) {
+						case 'h': return checkKeyword(2, "is", THIS);
+						case 'r': return checkKeyword(2, "ue", TRUE);
+					}
+				}
+				break;
+			case 'v': return checkKeyword(1, "ar", VAR);
+			case 'w': return checkKeyword(1, "hile", WHILE);
+		}
+		return IDENTIFIER;
+	}
+
+	// type when the lexeme from offset on is rest, IDENTIFIER otherwise
+	private TokenType checkKeyword(int offset, String rest, TokenType type) {
+		if (current - start != offset + rest.length()) return IDENTIFIER;
+		for (int i = 0; i < rest.length(); i++) {
+			if (buffer[start + offset + i] != rest.charAt(i)) return IDENTIFIER;
+		}
+		return type;
 	}
 
 	private void number() {
@@ -132,30 +251,44 @@ class Scanner {
 		// consume the digits after '.'
 		while (isDigit(peek())) advance();
 		// add the token
-		addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+		addToken(NUMBER);
 	}
 
 	private void string() {
 		// consume characters aslong as the quote didnt close
-		while (peek() != '"' && !isAtEnd()) {
-			if (peek() == '\n') line++;
-			advance();
+		while (true) {
+			int quote = SCAN.indexOf(buffer, current, limit, '"');
+			line += SCAN.count(buffer, current, quote, '\n');
+			current = quote;
+			if (current < limit || isAtEnd()) break;
 		}
 		// end reached and quote not closed
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated string");
+			// the string goes on in the next chunk
+			if (chunk) {
+				openString = start;
+				return;
+			}
+			error(line, "Unterminated string");
+			return;
 		}
 		// peeked '"' (quote closed)
 		advance();
-		// trim sourounding quotes
-		String value = source.substring(start + 1, current - 1);
-		addToken(STRING, value);
+		addToken(STRING);
+	}
+
+	private void error(int line, String message) {
+		if (errors == null) {
+			Lox.error(line, message);
+		} else {
+			errors.add(() -> Lox.error(line, message));
+		}
 	}
 
 	// check if the charcter at the current position matches the expected
 	private boolean match(char expected) {
 		if (isAtEnd()) return (false);
-		if (source.charAt(current) != expected) return (false);
+		if (buffer[current] != expected) return (false);
 
 		current++;
 		return (true);
@@ -164,13 +297,13 @@ class Scanner {
 	// take a peek and return the char at the current position
 	private char peek() {
 		if (isAtEnd()) return ('\0');
-		return (source.charAt(current));
+		return (buffer[current]);
 	}
 
 	// same as peek() (the function above) but peeks at character in position curent + 1
 	private char peekNext() {
-		if (current + 1 >= source.length()) return ('\0');
-		return (source.charAt(current + 1));
+		if (!available(2)) return ('\0');
+		return (buffer[current + 1]);
 	}
 
 	private boolean isAlpha(char c) {
@@ -188,24 +321,63 @@ class Scanner {
 		return (c >= '0' && c <= '9');
 	}
 
-	// consume the current character
+	// consume the current character, the callers peek at it first so
+	// it's always in the buffer
 	private char advance() {
-		return (source.charAt(current++));
+		return (buffer[current++]);
 	}
 
-	// adds a non value token to the list tokens
+	// records the type of the token just scanned, its lexeme and value
+	// are only made when the token is asked for
 	private void addToken(TokenType type) {
-		addToken(type, null);
+		this.type = type;
 	}
 
-	// add a token to the tokens list 
-	private void addToken(TokenType type, Object literal) {
-		String text = source.substring(start, current);
-		tokens.add(new Token(type, text, literal, line));
+	// the text of the lexeme scanned so far
+	private String lexeme() {
+		return new String(buffer, start, current - start);
 	}
 
 	// checks if the the end of source reached
 	private boolean isAtEnd() {
-		return (current >= source.length());
+		return (!available(1));
+	}
+
+	// checks if count characters from the current one on are in the
+	// buffer, reading them if needed
+	private boolean available(int count) {
+		while (current + count > limit) {
+			if (!fill()) return (false);
+		}
+		return (true);
+	}
+
+	// reads more of the source into the buffer, dropping what is before
+	// the current lexeme. False at the end of the source.
+	private boolean fill() {
+		if (reader == null || drained) return (false);
+		if (start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, limit - start);
+			limit -= start;
+			current -= start;
+			start = 0;
+		}
+		// a lexeme as long as the whole buffer
+		if (limit == buffer.length) {
+			char[] bigger = new char[buffer.length * 2];
+			System.arraycopy(buffer, 0, bigger, 0, limit);
+			buffer = bigger;
+		}
+		try {
+			int read = reader.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				drained = true;
+				return (false);
+			}
+			limit += read;
+			return (true);
+		} catch (IOException error) {
+			throw new UncheckedIOException(error);
+		}
 	}
 }
@@ -24,6 +24,10 @@ abstract class Stmt {
 		}
 
 		final List<Stmt> statements;
+
+		// analysis results, filled in after parsing
+		int slots;
+		boolean[] cells;
 	}
 	static class Expression extends Stmt {
 		Expression(Expr expression) {
@@ -52,6 +56,13 @@ abstract class Stmt {
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
+
+		// analysis results, filled in after parsing
+		int slots;
+		LazyBody lazy;
+		int local = -1;
+		boolean[] cells;
+		int[] upvalues;
 	}
 	static class If extends Stmt {
 		If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -94,6 +105,9 @@ abstract class Stmt {
 
 		final Token keyword;
 		final Expr value;
+
+		// analysis results, filled in after parsing
+		boolean tailCall;
 	}
 	static class Var extends Stmt {
 		Var(Token name, Expr initializer) {
@@ -108,6 +122,9 @@ abstract class Stmt {
 
 		final Token name;
 		final Expr initializer;
+
+		// analysis results, filled in after parsing
+		int local = -1;
 	}
 	static class While extends Stmt {
 		While(Expr condition, Stmt body) {
@@ -122,6 +139,9 @@ abstract class Stmt {
 
 		final Expr condition;
 		final Stmt body;
+
+		// analysis results, filled in after parsing
+		CountedLoop counted;
 	}
 
 	abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,243 @@
+package lox;
+
+
+// INFO: executable statement nodes. Statements don't specialize
+// themselves, they only hold the expression nodes that do and take
+// part in their rewriting as parents.
+abstract class StmtNode extends Node {
+	abstract void execute(Environment environment);
+
+	static void executeAll(StmtNode[] statements, Environment environment) {
+		for (StmtNode statement : statements) {
+			statement.execute(environment);
+		}
+	}
+
+	static final class Expression extends StmtNode {
+		private ExprNode expression;
+
+		Expression(ExprNode expression) {
+			this.expression = adopt(expression);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			expression.execute(environment);
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (expression != oldChild) return false;
+			expression = newChild;
+			return true;
+		}
+	}
+
+	static final class Print extends StmtNode {
+		private ExprNode expression;
+
+		Print(ExprNode expression) {
+			this.expression = adopt(expression);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			Object value = expression.execute(environment);
+			System.out.println(Interpreter.stringify(value));
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (expression != oldChild) return false;
+			expression = newChild;
+			return true;
+		}
+	}
+
+	// locals are defined in declaration order, so defining one just
+	// fills the next free slot of the current scope
+	static final class DefineLocal extends StmtNode {
+		private ExprNode value;
+
+		DefineLocal(ExprNode value) {
+			this.value = adopt(value);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			environment.define(value.execute(environment));
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (value != oldChild) return false;
+			value = newChild;
+			return true;
+		}
+	}
+
+	static final class DefineGlobal extends StmtNode {
+		private final Environment globals;
+		private final String name;
+		private ExprNode value;
+
+		DefineGlobal(Environment globals, String name, ExprNode value) {
+			this.globals = globals;
+			this.name = name;
+			this.value = adopt(value);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			globals.define(name, value.execute(environment));
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (value != oldChild) return false;
+			value = newChild;
+			return true;
+		}
+	}
+
+	static final class Block extends StmtNode {
+		private final int slots;
+		private final StmtNode[] statements;
+
+		Block(int slots, StmtNode[] statements) {
+			this.slots = slots;
+			this.statements = statements;
+			for (StmtNode statement : statements) adopt(statement);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			executeAll(statements, new Environment(environment, slots));
+		}
+	}
+
+	static final class If extends StmtNode {
+		private ExprNode condition;
+		private final StmtNode thenBranch;
+		private final StmtNode elseBranch;
+
+		If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+			this.condition = adopt(condition);
+			this.thenBranch = adopt(thenBranch);
+			this.elseBranch = adopt(elseBranch);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			if (Interpreter.isTruthy(condition.execute(environment))) {
+				thenBranch.execute(environment);
+			} else if (elseBranch != null) {
+				elseBranch.execute(environment);
+			}
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (condition != oldChild) return false;
+			condition = newChild;
+			return true;
+		}
+	}
+
+	static final class While extends StmtNode {
+		private ExprNode condition;
+		private final StmtNode body;
+
+		While(ExprNode condition, StmtNode body) {
+			this.condition = adopt(condition);
+			this.body = adopt(body);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			while (Interpreter.isTruthy(condition.execute(environment))) {
+				body.execute(environment);
+			}
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (condition != oldChild) return false;
+			condition = newChild;
+			return true;
+		}
+	}
+
+	static final class Return extends StmtNode {
+		private ExprNode value;
+
+		Return(ExprNode value) {
+			this.value = adopt(value);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			Object result = null;
+			if (value != null) result = value.execute(environment);
+			throw new lox.Return(result);
+		}
+
+		@Override
+		boolean replaceChild(ExprNode oldChild, ExprNode newChild) {
+			if (value != oldChild) return false;
+			value = newChild;
+			return true;
+		}
+	}
+
+	// the body is built once per declaration, every closure created
+	// from it shares the same (and the same specialized) nodes
+	static final class Function extends StmtNode {
+		private final String name;
+		private final int arity;
+		private final int slots;
+		private final StmtNode[] body;
+		private final Environment globals;
+
+		Function(String name, int arity, int slots, StmtNode[] body,
+				Environment globals) {
+			this.name = name;
+			this.arity = arity;
+			this.slots = slots;
+			this.body = body;
+			this.globals = globals;
+			for (StmtNode statement : body) adopt(statement);
+		}
+
+		@Override
+		void execute(Environment environment) {
+			NodeFunction function = new NodeFunction(this, environment);
+			if (globals != null) {
+				globals.define(name, function);
+			} else {
+				environment.define(function);
+			}
+		}
+
+		String name() {
+			return name;
+		}
+
+		int arity() {
+			return arity;
+		}
+
+		Object call(Environment closure, Object[] arguments) {
+			Environment environment = new Environment(closure, slots);
+			for (int i = 0; i < arity; i++) {
+				environment.define(arguments[i]);
+			}
+			try {
+				executeAll(body, environment);
+			} catch (lox.Return returnValue) {
+				return returnValue.value;
+			}
+			return null;
+		}
+	}
+}
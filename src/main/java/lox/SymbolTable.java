@@ -0,0 +1,54 @@
+package lox;
+
+// INFO: the names of one compilation, so every distinct name is a single
+// String however often it occurs, and later phases comparing names
+// mostly find them identical. A name is looked up by hashing its chars
+// where they are in the source, the same way String.hashCode() does, so
+// finding one that is already there allocates nothing.
+final class SymbolTable {
+	// open addressing, the table is at most half full
+	private String[] symbols = new String[64];
+	private int count = 0;
+
+	String intern(char[] chars, int start, int length) {
+		int hash = 0;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		int mask = symbols.length - 1;
+		int index = hash & mask;
+		String symbol;
+		while ((symbol = symbols[index]) != null) {
+			if (symbol.hashCode() == hash && matches(symbol, chars, start, length)) {
+				return symbol;
+			}
+			index = (index + 1) & mask;
+		}
+
+		symbol = new String(chars, start, length);
+		symbols[index] = symbol;
+		if (++count * 2 > symbols.length) grow();
+		return symbol;
+	}
+
+	private static boolean matches(String symbol, char[] chars, int start,
+			int length) {
+		if (symbol.length() != length) return false;
+		for (int i = 0; i < length; i++) {
+			if (symbol.charAt(i) != chars[start + i]) return false;
+		}
+		return true;
+	}
+
+	private void grow() {
+		String[] old = symbols;
+		symbols = new String[old.length * 2];
+		int mask = symbols.length - 1;
+		for (String symbol : old) {
+			if (symbol == null) continue;
+			int index = symbol.hashCode() & mask;
+			while (symbols[index] != null) index = (index + 1) & mask;
+			symbols[index] = symbol;
+		}
+	}
+}
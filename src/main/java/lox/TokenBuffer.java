@@ -0,0 +1,105 @@
+package lox;
+
+import java.util.Arrays;
+
+import static lox.TokenType.*;
+
+// INFO: all the tokens of a source, as parallel arrays of their type,
+// where they start in the source text, their length and their line.
+// That is 13 bytes a token instead of a Token object with its own
+// lexeme string and boxed literal. Token objects, lexemes and literals
+// are only created when the Parser asks for one, e.g. for a name it
+// keeps in the AST or a token it reports an error at.
+final class TokenBuffer {
+	private static final TokenType[] TYPES = TokenType.values();
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final char[] source;
+	private byte[] types = new byte[INITIAL_CAPACITY];
+	private int[] starts = new int[INITIAL_CAPACITY];
+	private int[] lengths = new int[INITIAL_CAPACITY];
+	private int[] lines = new int[INITIAL_CAPACITY];
+	private int size = 0;
+	// the lexeme of every token type that is always spelled the same,
+	// shared by all the tokens of that type
+	private final String[] spellings = new String[TYPES.length];
+	private final SymbolTable symbols = new SymbolTable();
+
+	// source is the text the offsets of the tokens point into
+	TokenBuffer(char[] source) {
+		this.source = source;
+	}
+
+	void add(TokenType type, int start, int length, int line) {
+		if (size == types.length) grow(size + 1);
+		types[size] = (byte)type.ordinal();
+		starts[size] = start;
+		lengths[size] = length;
+		lines[size] = line;
+		size++;
+	}
+
+	// appends the tokens of other, which point into the same source
+	void addAll(TokenBuffer other) {
+		if (size + other.size > types.length) grow(size + other.size);
+		System.arraycopy(other.types, 0, types, size, other.size);
+		System.arraycopy(other.starts, 0, starts, size, other.size);
+		System.arraycopy(other.lengths, 0, lengths, size, other.size);
+		System.arraycopy(other.lines, 0, lines, size, other.size);
+		size += other.size;
+	}
+
+	private void grow(int needed) {
+		int capacity = Math.max(types.length * 2, needed);
+		types = Arrays.copyOf(types, capacity);
+		starts = Arrays.copyOf(starts, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		lines = Arrays.copyOf(lines, capacity);
+	}
+
+	int size() {
+		return size;
+	}
+
+	TokenType type(int index) {
+		return TYPES[types[index]];
+	}
+
+	int line(int index) {
+		return lines[index];
+	}
+
+	String lexeme(int index) {
+		TokenType type = type(index);
+		if (type == IDENTIFIER) {
+			return symbols.intern(source, starts[index], lengths[index]);
+		}
+		if (type == STRING || type == NUMBER) {
+			return new String(source, starts[index], lengths[index]);
+		}
+		String spelling = spellings[type.ordinal()];
+		if (spelling == null) {
+			spelling = new String(source, starts[index], lengths[index]);
+			spellings[type.ordinal()] = spelling;
+		}
+		return spelling;
+	}
+
+	// the value of a STRING or NUMBER token, null for the others
+	Object literal(int index) {
+		switch (type(index)) {
+			case STRING:
+				// without the quotes
+				return new String(source, starts[index] + 1, lengths[index] - 2);
+			case NUMBER:
+				return Double.parseDouble(lexeme(index));
+			default:
+				return null;
+		}
+	}
+
+	Token token(int index) {
+		return new Token(type(index), lexeme(index), literal(index),
+			lines[index]);
+	}
+}
@@ -0,0 +1,455 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// INFO: proves the types of values where the code leaves no choice, so
+// the Interpreter can skip the checks of arithmetic and comparisons on
+// them. It runs over the resolved AST and follows the flow of each
+// function: the type of a local is the type of the value it was last
+// given, merged where branches meet and over every turn of a loop. Only
+// the uncaptured locals of a frame are followed, nothing but the
+// function's own code can change them. Captured locals and globals are
+// never known. Parameters and what calls return are only known from how
+// they are used: a local that arithmetic or a comparison took as an
+// operand is a number from then on, the operation failed otherwise. It
+// annotates Expr.Variable.type, and the operands of Expr.Binary and
+// Expr.Unary when both are proved to be of the type the operator takes.
+// The Interpreter takes an annotated operand as it is, so an annotation
+// must hold wherever its node runs. A node an optimization put in more
+// than one place of the program gets none.
+class TypeInference implements Expr.Visitor<LoxType>, Stmt.Visitor<Void> {
+	// the types of the locals of the frame being inferred, null where
+	// unknown, and which of them are captured
+	private LoxType[] locals = null;
+	private boolean[] cells = null;
+	// the locals assigned in the expression being inferred
+	private BitSet assigned = new BitSet();
+	// the nodes reachable from more than one place
+	private Set<Expr> shared = new HashSet<>();
+	private Stats stats = null;
+	private final List<Stats> all = new ArrayList<>();
+	private static final BitSet NONE = new BitSet();
+
+	// how many of the arithmetic and comparisons of a function run
+	// without checks
+	private static class Stats {
+		final String name;
+		final int line;
+		// a loop is inferred again until it settles, the same
+		// operation is only counted once
+		final Set<Expr> operations = new HashSet<>();
+
+		Stats(String name, int line) {
+			this.name = name;
+			this.line = line;
+		}
+
+		int typed() {
+			int typed = 0;
+			for (Expr operation : operations) {
+				if (operation instanceof Expr.Binary) {
+					if (((Expr.Binary)operation).operands != null) typed++;
+				} else if (((Expr.Unary)operation).operand != null) {
+					typed++;
+				}
+			}
+			return typed;
+		}
+	}
+
+	void infer(List<Stmt> statements) {
+		shared = Sharing.of(statements);
+		stats = new Stats("script", 1);
+		all.add(stats);
+		visit(statements);
+	}
+
+	// LazyBody infers a lazy function once it parsed its body
+	void infer(Stmt.Function function) {
+		shared = Sharing.of(function.body);
+		function(function);
+	}
+
+	// a function, with the functions in it
+	private void function(Stmt.Function function) {
+		LoxType[] enclosingLocals = locals;
+		boolean[] enclosingCells = cells;
+		Stats enclosingStats = stats;
+		locals = new LoxType[function.cells.length];
+		cells = function.cells;
+		stats = new Stats(function.name.lexeme, function.name.line);
+		all.add(stats);
+		visit(function.body);
+		locals = enclosingLocals;
+		cells = enclosingCells;
+		stats = enclosingStats;
+	}
+
+	// prints the stats of every function inferred, to stderr
+	void report() {
+		for (Stats function : all) {
+			System.err.println(String.format(
+				"[line %d] %s: %d of %d operations typed", function.line,
+				function.name, function.typed(), function.operations.size()));
+		}
+	}
+
+	private void visit(List<Stmt> statements) {
+		for (Stmt statement : statements) {
+			statement.accept(this);
+		}
+	}
+
+	private LoxType infer(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private LoxType local(int local) {
+		if (local < 0 || cells[local]) return null;
+		return locals[local];
+	}
+
+	private void assign(int local, LoxType type) {
+		if (local < 0 || cells[local]) return;
+		locals[local] = type;
+	}
+
+	private LoxType[] copy() {
+		return locals == null ? null : locals.clone();
+	}
+
+	// the locals where the flow meets another one
+	private void merge(LoxType[] other) {
+		if (locals == null) return;
+		for (int i = 0; i < locals.length; i++) {
+			locals[i] = LoxType.merge(locals[i], other[i]);
+		}
+	}
+
+	// an operand the operation checked to be a number. A local the
+	// operands after it assigned may hold something else by then.
+	private void checked(Expr operand, BitSet reassigned) {
+		while (operand instanceof Expr.Grouping) {
+			operand = ((Expr.Grouping)operand).expression;
+		}
+		if (operand instanceof Expr.Variable) {
+			int local = ((Expr.Variable)operand).local;
+			if (local >= 0 && reassigned.get(local)) return;
+			assign(local, LoxType.NUMBER);
+		}
+	}
+
+	private void count(Expr operation) {
+		if (stats != null) stats.operations.add(operation);
+	}
+
+	// the type the node gets annotated with, none when it's shared
+	private LoxType annotation(Expr node, LoxType type) {
+		return shared.contains(node) ? null : type;
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		if (stmt.cells == null) {
+			visit(stmt.statements);
+			return null;
+		}
+		// the outermost block brings its own frame
+		LoxType[] enclosingLocals = locals;
+		boolean[] enclosingCells = cells;
+		locals = new LoxType[stmt.cells.length];
+		cells = stmt.cells;
+		visit(stmt.statements);
+		locals = enclosingLocals;
+		cells = enclosingCells;
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		infer(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Stmt.Function stmt) {
+		// a lazy body is inferred when it's parsed
+		if (stmt.lazy == null) function(stmt);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		infer(stmt.condition);
+		LoxType[] otherwise = copy();
+		stmt.thenBranch.accept(this);
+		LoxType[] then = locals;
+		locals = otherwise;
+		if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+		merge(then);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		infer(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.value != null) infer(stmt.value);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		LoxType type = LoxType.NIL;
+		if (stmt.initializer != null) type = infer(stmt.initializer);
+		assign(stmt.local, type);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(Stmt.While stmt) {
+		// until the types the loop comes back with are the ones it was
+		// inferred for, the last round leaves the annotations
+		LoxType[] entry = copy();
+		while (true) {
+			infer(stmt.condition);
+			stmt.body.accept(this);
+			merge(entry);
+			if (Arrays.equals(locals, entry)) break;
+			entry = copy();
+		}
+		// it leaves when the condition is false
+		locals = entry;
+		infer(stmt.condition);
+		return null;
+	}
+
+	@Override
+	public LoxType visitAssignExpr(Expr.Assign expr) {
+		LoxType type = infer(expr.value);
+		assign(expr.local, type);
+		if (expr.local >= 0) assigned.set(expr.local);
+		return type;
+	}
+
+	@Override
+	public LoxType visitBinaryExpr(Expr.Binary expr) {
+		LoxType left = infer(expr.left);
+		BitSet enclosing = assigned;
+		assigned = new BitSet();
+		LoxType right = infer(expr.right);
+		BitSet reassigned = assigned;
+		assigned = enclosing;
+		assigned.or(reassigned);
+		LoxType operands = left == right ? left : null;
+		switch (expr.operator.type) {
+			case MINUS:
+			case SLASH:
+			case STAR:
+				count(expr);
+				expr.operands = annotation(expr,
+					operands == LoxType.NUMBER ? operands : null);
+				checked(expr.left, reassigned);
+				checked(expr.right, NONE);
+				return LoxType.NUMBER;
+			case PLUS:
+				count(expr);
+				operands = operands == LoxType.NUMBER ||
+					operands == LoxType.STRING ? operands : null;
+				expr.operands = annotation(expr, operands);
+				return operands;
+			case GREATER:
+			case GREATER_EQUAL:
+			case LESS:
+			case LESS_EQUAL:
+				count(expr);
+				expr.operands = annotation(expr,
+					operands == LoxType.NUMBER ? operands : null);
+				checked(expr.left, reassigned);
+				checked(expr.right, NONE);
+				return LoxType.BOOLEAN;
+			default:
+				return LoxType.BOOLEAN;
+		}
+	}
+
+	@Override
+	public LoxType visitCallExpr(Expr.Call expr) {
+		infer(expr.callee);
+		for (Expr argument : expr.arguments) infer(argument);
+		return null;
+	}
+
+	@Override
+	public LoxType visitGroupingExpr(Expr.Grouping expr) {
+		return infer(expr.expression);
+	}
+
+	@Override
+	public LoxType visitLiteralExpr(Expr.Literal expr) {
+		return LoxType.of(expr.value);
+	}
+
+	@Override
+	public LoxType visitLogicalExpr(Expr.Logical expr) {
+		LoxType left = infer(expr.left);
+		// the right operand may not run
+		LoxType[] skipped = copy();
+		LoxType right = infer(expr.right);
+		merge(skipped);
+		return LoxType.merge(left, right);
+	}
+
+	@Override
+	public LoxType visitUnaryExpr(Expr.Unary expr) {
+		LoxType right = infer(expr.right);
+		if (expr.operator.type == TokenType.BANG) return LoxType.BOOLEAN;
+		count(expr);
+		expr.operand = annotation(expr, right == LoxType.NUMBER ? right : null);
+		checked(expr.right, NONE);
+		return LoxType.NUMBER;
+	}
+
+	@Override
+	public LoxType visitVariableExpr(Expr.Variable expr) {
+		LoxType type = local(expr.local);
+		expr.type = annotation(expr, type);
+		return type;
+	}
+
+	// INFO: finds the expression nodes reachable from more than one
+	// place of a program, e.g. a node the Optimizer substituted at
+	// several sites. The bodies of lazy functions are left for when
+	// they're parsed.
+	private static class Sharing implements Expr.Visitor<Void>,
+			Stmt.Visitor<Void> {
+		private final Set<Expr> seen = new HashSet<>();
+		private final Set<Expr> shared = new HashSet<>();
+
+		static Set<Expr> of(List<Stmt> statements) {
+			Sharing sharing = new Sharing();
+			sharing.visit(statements);
+			return sharing.shared;
+		}
+
+		private void visit(List<Stmt> statements) {
+			for (Stmt statement : statements) {
+				statement.accept(this);
+			}
+		}
+
+		private void visit(Expr expr) {
+			if (!seen.add(expr)) shared.add(expr);
+			expr.accept(this);
+		}
+
+		@Override
+		public Void visitBlockStmt(Stmt.Block stmt) {
+			visit(stmt.statements);
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Stmt.Expression stmt) {
+			visit(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitFunctionStmt(Stmt.Function stmt) {
+			if (stmt.lazy == null) visit(stmt.body);
+			return null;
+		}
+
+		@Override
+		public Void visitIfStmt(Stmt.If stmt) {
+			visit(stmt.condition);
+			stmt.thenBranch.accept(this);
+			if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Stmt.Print stmt) {
+			visit(stmt.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitReturnStmt(Stmt.Return stmt) {
+			if (stmt.value != null) visit(stmt.value);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Stmt.Var stmt) {
+			if (stmt.initializer != null) visit(stmt.initializer);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStmt(Stmt.While stmt) {
+			visit(stmt.condition);
+			stmt.body.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr) {
+			visit(expr.value);
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr) {
+			visit(expr.left);
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Expr.Call expr) {
+			visit(expr.callee);
+			for (Expr argument : expr.arguments) visit(argument);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr) {
+			visit(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr) {
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Expr.Logical expr) {
+			visit(expr.left);
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr) {
+			visit(expr.right);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,515 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// INFO: a stack based virtual machine running the bytecode produced by
+// the Compiler. Every call pushes a frame whose locals start at the
+// callee's stack slot, the same layout clox uses. Globals are kept in
+// an array indexed at compile time instead of a map keyed by name.
+//
+// Numbers are never boxed while the VM runs: every stack slot, global
+// and closed upvalue has a double next to its Object, and the Object
+// is the NUMBER marker whenever the slot holds a number. Arithmetic in
+// loops therefore doesn't allocate. Values are boxed only when they
+// leave the VM (print, natives).
+class VM {
+	static final Object NUMBER = new Object();
+	private static final int FRAMES_MAX = 1 << 18;
+	// marks a global slot that was handed out but never defined
+	private static final Object UNDEFINED = new Object();
+
+	private final Map<String, Integer> globalIndices = new HashMap<>();
+	private final List<String> globalNames = new ArrayList<>();
+	private Object[] globals = new Object[64];
+	private double[] globalNumbers = new double[64];
+
+	private Object[] stack = new Object[256];
+	private double[] numbers = new double[256];
+	private int stackTop = 0;
+
+	private ObjClosure[] frameClosures = new ObjClosure[64];
+	private int[] frameIps = new int[64];
+	private int[] frameBases = new int[64];
+	private int frameCount = 0;
+
+	private ObjUpvalue openUpvalues = null;
+
+	VM() {
+		Arrays.fill(globals, UNDEFINED);
+		for (Map.Entry<String, LoxCallable> fn : Natives.ALL.entrySet()) {
+			globals[globalIndex(fn.getKey())] = fn.getValue();
+		}
+	}
+
+	// hands out the slot of a global, globals survive between runs so
+	// the REPL keeps its variables
+	int globalIndex(String name) {
+		Integer index = globalIndices.get(name);
+		if (index != null) return index;
+		index = globalNames.size();
+		globalNames.add(name);
+		globalIndices.put(name, index);
+		if (index == globals.length) {
+			int oldLength = globals.length;
+			globals = Arrays.copyOf(globals, oldLength * 2);
+			globalNumbers = Arrays.copyOf(globalNumbers, oldLength * 2);
+			Arrays.fill(globals, oldLength, globals.length, UNDEFINED);
+		}
+		return index;
+	}
+
+	void interpret(ObjFunction script) {
+		ObjClosure closure = new ObjClosure(script);
+		stackTop = 0;
+		frameCount = 0;
+		openUpvalues = null;
+		ensureStack(script.maxStack);
+		stack[stackTop++] = closure;
+		pushFrame(closure, 0);
+		try {
+			run();
+		} catch (RuntimeError error) {
+			Lox.runtimeError(error);
+		} finally {
+			// drop whatever the program left behind
+			Arrays.fill(stack, null);
+			stackTop = 0;
+			frameCount = 0;
+			openUpvalues = null;
+		}
+	}
+
+	private void ensureStack(int needed) {
+		if (stackTop + needed > stack.length) {
+			int length = Math.max(stack.length * 2, stackTop + needed);
+			stack = Arrays.copyOf(stack, length);
+			numbers = Arrays.copyOf(numbers, length);
+		}
+	}
+
+	private void pushFrame(ObjClosure closure, int base) {
+		if (frameCount == frameClosures.length) {
+			int length = frameCount * 2;
+			frameClosures = Arrays.copyOf(frameClosures, length);
+			frameIps = Arrays.copyOf(frameIps, length);
+			frameBases = Arrays.copyOf(frameBases, length);
+		}
+		frameClosures[frameCount] = closure;
+		frameIps[frameCount] = 0;
+		frameBases[frameCount] = base;
+		frameCount++;
+	}
+
+	private void run() {
+		ObjClosure closure = frameClosures[frameCount - 1];
+		Chunk chunk = closure.function.chunk;
+		byte[] code = chunk.code;
+		Object[] constants = chunk.constants;
+		double[] numberConstants = chunk.numbers;
+		int base = frameBases[frameCount - 1];
+		int ip = 0;
+		Object[] stack = this.stack;
+		double[] numbers = this.numbers;
+		int sp = stackTop;
+
+		while (true) {
+			byte instruction = code[ip++];
+			switch (instruction) {
+				case OpCode.CONSTANT: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					stack[sp] = constants[index];
+					numbers[sp] = numberConstants[index];
+					sp++;
+					break;
+				}
+				case OpCode.NIL: stack[sp++] = null; break;
+				case OpCode.TRUE: stack[sp++] = true; break;
+				case OpCode.FALSE: stack[sp++] = false; break;
+				case OpCode.POP: sp--; break;
+				case OpCode.GET_LOCAL: {
+					int slot = base +
+						(((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+					ip += 2;
+					stack[sp] = stack[slot];
+					numbers[sp] = numbers[slot];
+					sp++;
+					break;
+				}
+				case OpCode.SET_LOCAL: {
+					int slot = base +
+						(((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+					ip += 2;
+					stack[slot] = stack[sp - 1];
+					numbers[slot] = numbers[sp - 1];
+					break;
+				}
+				case OpCode.STORE_LOCAL: {
+					int slot = base +
+						(((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+					ip += 2;
+					sp--;
+					stack[slot] = stack[sp];
+					numbers[slot] = numbers[sp];
+					break;
+				}
+				case OpCode.GET_GLOBAL: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					Object value = globals[index];
+					if (value == UNDEFINED) {
+						throw undefinedVariable(chunk, ip, index);
+					}
+					stack[sp] = value;
+					numbers[sp] = globalNumbers[index];
+					sp++;
+					break;
+				}
+				case OpCode.DEFINE_GLOBAL: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					sp--;
+					globals[index] = stack[sp];
+					globalNumbers[index] = numbers[sp];
+					break;
+				}
+				case OpCode.SET_GLOBAL: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					if (globals[index] == UNDEFINED) {
+						throw undefinedVariable(chunk, ip, index);
+					}
+					globals[index] = stack[sp - 1];
+					globalNumbers[index] = numbers[sp - 1];
+					break;
+				}
+				case OpCode.STORE_GLOBAL: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					if (globals[index] == UNDEFINED) {
+						throw undefinedVariable(chunk, ip, index);
+					}
+					sp--;
+					globals[index] = stack[sp];
+					globalNumbers[index] = numbers[sp];
+					break;
+				}
+				case OpCode.GET_UPVALUE: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					ObjUpvalue upvalue = closure.upvalues[index];
+					if (upvalue.open) {
+						stack[sp] = stack[upvalue.slot];
+						numbers[sp] = numbers[upvalue.slot];
+					} else {
+						stack[sp] = upvalue.closed;
+						numbers[sp] = upvalue.closedNumber;
+					}
+					sp++;
+					break;
+				}
+				case OpCode.SET_UPVALUE: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					ObjUpvalue upvalue = closure.upvalues[index];
+					if (upvalue.open) {
+						stack[upvalue.slot] = stack[sp - 1];
+						numbers[upvalue.slot] = numbers[sp - 1];
+					} else {
+						upvalue.closed = stack[sp - 1];
+						upvalue.closedNumber = numbers[sp - 1];
+					}
+					break;
+				}
+				case OpCode.STORE_UPVALUE: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					ObjUpvalue upvalue = closure.upvalues[index];
+					sp--;
+					if (upvalue.open) {
+						stack[upvalue.slot] = stack[sp];
+						numbers[upvalue.slot] = numbers[sp];
+					} else {
+						upvalue.closed = stack[sp];
+						upvalue.closedNumber = numbers[sp];
+					}
+					break;
+				}
+				case OpCode.EQUAL:
+					sp--;
+					stack[sp - 1] = valuesEqual(stack[sp - 1], numbers[sp - 1],
+						stack[sp], numbers[sp]);
+					break;
+				case OpCode.NOT_EQUAL:
+					sp--;
+					stack[sp - 1] = !valuesEqual(stack[sp - 1], numbers[sp - 1],
+						stack[sp], numbers[sp]);
+					break;
+				case OpCode.GREATER:
+					sp--;
+					if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+						throw numberOperands(chunk, ip);
+					}
+					stack[sp - 1] = numbers[sp - 1] > numbers[sp];
+					break;
+				case OpCode.GREATER_EQUAL:
+					sp--;
+					if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+						throw numberOperands(chunk, ip);
+					}
+					stack[sp - 1] = numbers[sp - 1] >= numbers[sp];
+					break;
+				case OpCode.LESS:
+					sp--;
+					if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+						throw numberOperands(chunk, ip);
+					}
+					stack[sp - 1] = numbers[sp - 1] < numbers[sp];
+					break;
+				case OpCode.LESS_EQUAL:
+					sp--;
+					if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+						throw numberOperands(chunk, ip);
+					}
+					stack[sp - 1] = numbers[sp - 1] <= numbers[sp];
+					break;
+				case OpCode.SUBTRACT:
+					sp--;
+					if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+						throw numberOperands(chunk, ip);
+					}
+					numbers[sp - 1] = numbers[sp - 1] - numbers[sp];
+					break;
+				case OpCode.MULTIPLY:
+					sp--;
+					if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+						throw numberOperands(chunk, ip);
+					}
+					numbers[sp - 1] = numbers[sp - 1] * numbers[sp];
+					break;
+				case OpCode.DIVIDE:
+					sp--;
+					if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) {
+						throw numberOperands(chunk, ip);
+					}
+					numbers[sp - 1] = numbers[sp - 1] / numbers[sp];
+					break;
+				case OpCode.ADD: {
+					sp--;
+					Object a = stack[sp - 1];
+					Object b = stack[sp];
+					if (a == NUMBER && b == NUMBER) {
+						numbers[sp - 1] = numbers[sp - 1] + numbers[sp];
+					} else if (a instanceof String && b instanceof String) {
+						stack[sp - 1] = (String)a + (String)b;
+					} else {
+						throw new RuntimeError(chunk.lines[ip - 1],
+							"Operands must be two numbers or two strings.");
+					}
+					break;
+				}
+				case OpCode.NOT:
+					stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+					break;
+				case OpCode.NEGATE:
+					if (stack[sp - 1] != NUMBER) {
+						throw new RuntimeError(chunk.lines[ip - 1],
+							"Operand must be a number.");
+					}
+					numbers[sp - 1] = -numbers[sp - 1];
+					break;
+				case OpCode.PRINT:
+					sp--;
+					System.out.println(Interpreter.stringify(
+						box(stack[sp], numbers[sp])));
+					break;
+				case OpCode.JUMP: {
+					int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2 + offset;
+					break;
+				}
+				case OpCode.JUMP_IF_FALSE: {
+					int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					if (!Interpreter.isTruthy(stack[sp - 1])) ip += offset;
+					break;
+				}
+				case OpCode.POP_JUMP_IF_FALSE: {
+					int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					sp--;
+					if (!Interpreter.isTruthy(stack[sp])) ip += offset;
+					break;
+				}
+				case OpCode.LOOP: {
+					int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2 - offset;
+					break;
+				}
+				case OpCode.CALL: {
+					int argCount = code[ip++] & 0xff;
+					int calleeSlot = sp - argCount - 1;
+					Object callee = stack[calleeSlot];
+					if (callee instanceof ObjClosure) {
+						ObjClosure function = (ObjClosure)callee;
+						if (argCount != function.function.arity) {
+							throw arityError(chunk, ip,
+								function.function.arity, argCount);
+						}
+						if (frameCount == FRAMES_MAX) {
+							throw new RuntimeError(chunk.lines[ip - 1],
+								"Stack overflow.");
+						}
+						// save the caller, switch to the callee
+						frameIps[frameCount - 1] = ip;
+						stackTop = sp;
+						ensureStack(function.function.maxStack);
+						stack = this.stack;
+						numbers = this.numbers;
+						pushFrame(function, calleeSlot);
+						closure = function;
+						chunk = closure.function.chunk;
+						code = chunk.code;
+						constants = chunk.constants;
+						numberConstants = chunk.numbers;
+						base = calleeSlot;
+						ip = 0;
+					} else if (callee instanceof LoxCallable) {
+						LoxCallable function = (LoxCallable)callee;
+						if (argCount != function.arity()) {
+							throw arityError(chunk, ip,
+								function.arity(), argCount);
+						}
+						Object[] arguments = new Object[argCount];
+						for (int i = 0; i < argCount; i++) {
+							arguments[i] = box(stack[calleeSlot + 1 + i],
+								numbers[calleeSlot + 1 + i]);
+						}
+						// natives don't use the tree-walk interpreter
+						Object result = function.call(null, arguments);
+						sp = calleeSlot;
+						if (result instanceof Double) {
+							stack[sp] = NUMBER;
+							numbers[sp] = (double)result;
+						} else {
+							stack[sp] = result;
+						}
+						sp++;
+					} else {
+						throw new RuntimeError(chunk.lines[ip - 1],
+							"Can only call functions and classes.");
+					}
+					break;
+				}
+				case OpCode.CLOSURE: {
+					int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+					ip += 2;
+					ObjClosure created =
+						new ObjClosure((ObjFunction)constants[index]);
+					for (int i = 0; i < created.upvalues.length; i++) {
+						boolean isLocal = code[ip] == 1;
+						int slot = ((code[ip + 1] & 0xff) << 8) |
+							(code[ip + 2] & 0xff);
+						ip += 3;
+						created.upvalues[i] = isLocal
+							? captureUpvalue(base + slot)
+							: closure.upvalues[slot];
+					}
+					stack[sp++] = created;
+					break;
+				}
+				case OpCode.CLOSE_UPVALUE:
+					closeUpvalues(sp - 1);
+					sp--;
+					break;
+				case OpCode.RETURN: {
+					sp--;
+					Object result = stack[sp];
+					double resultNumber = numbers[sp];
+					if (openUpvalues != null) closeUpvalues(base);
+					frameCount--;
+					frameClosures[frameCount] = null;
+					if (frameCount == 0) return;
+
+					sp = base;
+					stack[sp] = result;
+					numbers[sp] = resultNumber;
+					sp++;
+					closure = frameClosures[frameCount - 1];
+					chunk = closure.function.chunk;
+					code = chunk.code;
+					constants = chunk.constants;
+					numberConstants = chunk.numbers;
+					base = frameBases[frameCount - 1];
+					ip = frameIps[frameCount - 1];
+					break;
+				}
+			}
+		}
+	}
+
+	// numbers never sit on the stack boxed, NUMBER marks a slot whose
+	// value is in the parallel double array
+	private static Object box(Object value, double number) {
+		return value == NUMBER ? (Object)number : value;
+	}
+
+	private static boolean valuesEqual(
+			Object a, double aNumber, Object b, double bNumber) {
+		if (a == NUMBER || b == NUMBER) {
+			// same comparison Double.equals() makes
+			return a == b && Double.doubleToLongBits(aNumber) ==
+				Double.doubleToLongBits(bNumber);
+		}
+		return Interpreter.isEqual(a, b);
+	}
+
+	private ObjUpvalue captureUpvalue(int slot) {
+		ObjUpvalue previous = null;
+		ObjUpvalue upvalue = openUpvalues;
+		while (upvalue != null && upvalue.slot > slot) {
+			previous = upvalue;
+			upvalue = upvalue.next;
+		}
+		if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+		ObjUpvalue created = new ObjUpvalue(slot, upvalue);
+		if (previous == null) {
+			openUpvalues = created;
+		} else {
+			previous.next = created;
+		}
+		return created;
+	}
+
+	private void closeUpvalues(int last) {
+		while (openUpvalues != null && openUpvalues.slot >= last) {
+			ObjUpvalue upvalue = openUpvalues;
+			upvalue.closed = stack[upvalue.slot];
+			upvalue.closedNumber = numbers[upvalue.slot];
+			upvalue.open = false;
+			openUpvalues = upvalue.next;
+		}
+	}
+
+	// ip already points past the operand of the failing instruction
+	private RuntimeError undefinedVariable(Chunk chunk, int ip, int index) {
+		return new RuntimeError(chunk.lines[ip - 1],
+			"Undefined variable '" + globalNames.get(index) + "'.");
+	}
+
+	private RuntimeError numberOperands(Chunk chunk, int ip) {
+		return new RuntimeError(chunk.lines[ip - 1],
+			"Operands must be numbers.");
+	}
+
+	private RuntimeError arityError(
+			Chunk chunk, int ip, int arity, int argCount) {
+		return new RuntimeError(chunk.lines[ip - 1], "Expected " +
+			arity + " arguments but got " + argCount + ".");
+	}
+}
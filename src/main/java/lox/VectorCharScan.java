@@ -0,0 +1,57 @@
+package lox;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+// INFO: the searches of CharScan with the Vector API, comparing a whole
+// vector of chars at once. Only loaded by CharScan.get() when the JVM
+// has the jdk.incubator.vector module. The tail of a range that doesn't
+// fill a vector is left to the scalar searches.
+final class VectorCharScan extends CharScan {
+	// 16 chars (32 bytes) at a time on AVX2. Wider vectors don't pay
+	// off on the lengths of comments and strings in Lox programs.
+	private static final VectorSpecies<Short> SPECIES =
+		ShortVector.SPECIES_PREFERRED.vectorBitSize() > 256
+			? ShortVector.SPECIES_256 : ShortVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+
+	@Override
+	int indexOf(char[] chars, int from, int to, char c) {
+		int i = from;
+		for (; i + LANES <= to; i += LANES) {
+			ShortVector vector = ShortVector.fromCharArray(SPECIES, chars, i);
+			VectorMask<Short> found = vector.eq((short)c);
+			if (found.anyTrue()) return i + found.firstTrue();
+		}
+		return super.indexOf(chars, i, to, c);
+	}
+
+	@Override
+	int count(char[] chars, int from, int to, char c) {
+		int count = 0;
+		int i = from;
+		for (; i + LANES <= to; i += LANES) {
+			ShortVector vector = ShortVector.fromCharArray(SPECIES, chars, i);
+			count += vector.eq((short)c).trueCount();
+		}
+		return count + super.count(chars, i, to, c);
+	}
+
+	@Override
+	int skipBlanks(char[] chars, int from, int to) {
+		// most runs are a few chars of indentation, only the longer ones
+		// are worth loading a vector for
+		int end = Math.min(from + LANES, to);
+		int i = super.skipBlanks(chars, from, end);
+		if (i < end) return i;
+		for (; i + LANES <= to; i += LANES) {
+			ShortVector vector = ShortVector.fromCharArray(SPECIES, chars, i);
+			VectorMask<Short> blank = vector.eq((short)' ')
+				.or(vector.eq((short)'\t'))
+				.or(vector.eq((short)'\r'));
+			if (!blank.allTrue()) return i + blank.not().firstTrue();
+		}
+		return super.skipBlanks(chars, i, to);
+	}
+}
@@ -0,0 +1,172 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// INFO: every way of scanning a source has to give the same tokens and
+// report the same errors: the Scanner over a String, the Scanner reading
+// through its window from a Reader, and ParallelScanner cutting the
+// source into chunks. The searches behind them are the VectorCharScan
+// ones when the JVM has the Vector API, the build runs these tests a
+// second time with "-Dlox.simd=false" for the scalar ones.
+class ScannerTest {
+	// what a source becomes, one line per token followed by the errors
+	private static String scan(Supplier<List<Token>> scanner) {
+		PrintStream out = System.out;
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(errors, true));
+		try {
+			StringBuilder result = new StringBuilder();
+			for (Token token : scanner.get()) {
+				result.append(token.type).append(' ').append(token.lexeme)
+					.append(' ').append(token.literal).append(' ')
+					.append(token.line).append('\n');
+			}
+			return result.append(errors).toString();
+		} finally {
+			System.setOut(out);
+			Lox.hadError = false;
+		}
+	}
+
+	private static List<Token> tokens(TokenBuffer buffer) {
+		List<Token> tokens = new ArrayList<>();
+		for (int i = 0; i < buffer.size(); i++) tokens.add(buffer.token(i));
+		return tokens;
+	}
+
+	private static List<Token> tokens(Reader reader) {
+		Scanner scanner = new Scanner(reader);
+		List<Token> tokens = new ArrayList<>();
+		Token token;
+		do {
+			token = scanner.nextToken();
+			tokens.add(token);
+		} while (token.type != TokenType.EOF);
+		return tokens;
+	}
+
+	// a Reader handing out the source one char at a time, so the window
+	// of the Scanner is refilled for every char
+	private static Reader trickle(String source) {
+		return new StringReader(source) {
+			@Override
+			public int read(char[] buffer, int offset, int length)
+					throws java.io.IOException {
+				return super.read(buffer, offset, Math.min(length, 1));
+			}
+		};
+	}
+
+	private static void assertSameTokens(String source) {
+		String expected = scan(() -> tokens(new Scanner(source).scanTokens()));
+		assertEquals(expected, scan(() -> tokens(new StringReader(source))),
+			() -> "Reader, " + source);
+		assertEquals(expected, scan(() -> tokens(trickle(source))),
+			() -> "one char at a time, " + source);
+		for (int chunkSize : new int[] {1, 7, 64}) {
+			assertEquals(expected, scan(() -> tokens(ParallelScanner
+					.scanTokens(source.toCharArray(), chunkSize))),
+				() -> "chunks of " + chunkSize + ", " + source);
+		}
+	}
+
+	private static final String[] PIECES = {
+		"var", "fun", "return", "while", "for", "if", "else", "and", "or",
+		"nil", "true", "false", "print", "class", "this", "super",
+		"x", "name_2", "_", "orchid", "variable", "0", "12", "3.25", "7.",
+		"\"\"", "\"a string\"", "\"two\nlines\"", "// a comment\n", "//\n",
+		" ", "  ", "\t", "\r", "\n", "\n\n", "(", ")", "{", "}", ",", ".",
+		"-", "+", ";", "*", "/", "!", "!=", "=", "==", "<", "<=", ">", ">=",
+		"@", "#", "\"unterminated"
+	};
+
+	private static String random(Random random, int pieces) {
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < pieces; i++) {
+			source.append(PIECES[random.nextInt(PIECES.length)]);
+		}
+		return source.toString();
+	}
+
+	@Test
+	void randomSources() {
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			assertSameTokens(random(random, random.nextInt(60)));
+		}
+	}
+
+	// comments, strings and blank runs of every length up to a few
+	// vector widths, starting at every offset within one
+	@Test
+	void runsAcrossVectorWidths() {
+		for (int offset = 0; offset < 70; offset++) {
+			String pad = "x".repeat(offset) + " ";
+			for (int length = 0; length < 140; length += 3) {
+				String run = "a".repeat(length);
+				assertSameTokens(pad + "//" + run + "\nprint 1;");
+				assertSameTokens(pad + "\"" + run + "\" + 1;");
+				assertSameTokens(pad + " ".repeat(length) + "y" +
+					"\t \r".repeat(length / 3) + "z");
+			}
+		}
+	}
+
+	// lexemes crossing the end of the Scanner's 8192 char window
+	@Test
+	void lexemesAcrossTheReaderWindow() {
+		for (int at = 8180; at < 8200; at++) {
+			String pad = "\n".repeat(at);
+			assertSameTokens(pad + "identifier 12.5 \"string\" // end");
+			assertSameTokens(pad.substring(10) + "\"" + "s".repeat(9000) + "\"");
+			assertSameTokens(pad.substring(10) + "//" + "c".repeat(9000) +
+				"\nvar a = 1;");
+		}
+		Random random = new Random(7);
+		for (int i = 0; i < 20; i++) {
+			assertSameTokens(random(random, 5000));
+		}
+	}
+
+	// the scalar searches and the ones the Scanner uses agree
+	@Test
+	void searchesMatchTheScalarOnes() {
+		CharScan scalar = new CharScan();
+		CharScan picked = CharScan.get();
+		Random random = new Random(3);
+		char[] blanks = {' ', '\t', '\r'};
+		char[] others = {'a', '\n', '"', '/', 'z'};
+		double[] densities = {0.5, 0.05, 0.01};
+		for (int i = 0; i < 3000; i++) {
+			// mostly blanks, so there are runs longer than a vector
+			double density = densities[i % densities.length];
+			char[] chars = new char[random.nextInt(300)];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = random.nextDouble() < density
+					? others[random.nextInt(others.length)]
+					: blanks[random.nextInt(blanks.length)];
+			}
+			int from = chars.length == 0 ? 0 : random.nextInt(chars.length);
+			int to = from + random.nextInt(chars.length - from + 1);
+			for (char c : new char[] {'\n', '"'}) {
+				assertEquals(scalar.indexOf(chars, from, to, c),
+					picked.indexOf(chars, from, to, c));
+				assertEquals(scalar.count(chars, from, to, c),
+					picked.count(chars, from, to, c));
+			}
+			assertEquals(scalar.skipBlanks(chars, from, to),
+				picked.skipBlanks(chars, from, to));
+		}
+	}
+}
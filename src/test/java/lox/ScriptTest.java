@@ -0,0 +1,153 @@
+package lox;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// INFO: runs the scripts in src/test/resources/scripts with every engine
+// and compares what they print with the comments in them, the way the
+// book's test suite does: "// expect: value" for each line printed, and
+// "// expect runtime error: message" for the error the script stops
+// with. "// expect syntax error: Error at 'x': message" is an error
+// reported for the line of the comment, a script with those only gets
+// its errors and status compared, "--lazy" runs it up to the call that
+// parses the body. A script that only some engines can run names them
+// in a "// engines: tree tiered" comment, and says why. Every script runs in
+// a JVM of its own, Lox keeps its options in static fields and exits
+// with the status of the script.
+class ScriptTest {
+	private static final String[][] OPTIONS = {
+		{"--engine=tree"},
+		{"--engine=tree", "--lazy"},
+		{"--engine=tree", "-O"},
+		{"--engine=tiered"},
+		{"--engine=tiered", "-O"},
+		{"--engine=vm"},
+		{"--engine=nodes"},
+		{"--engine=lambda"},
+	};
+
+	private static final String EXPECT = "// expect: ";
+	private static final String EXPECT_ERROR = "// expect runtime error: ";
+	private static final String EXPECT_SYNTAX_ERROR =
+		"// expect syntax error: ";
+	private static final String ENGINES = "// engines: ";
+
+	private static class Run {
+		final String out;
+		final String err;
+		final int status;
+
+		Run(String out, String err, int status) {
+			this.out = out;
+			this.err = err;
+			this.status = status;
+		}
+	}
+
+	private static Run run(Path script, String... options)
+			throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+			.toString());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("lox.Lox");
+		command.addAll(Arrays.asList(options));
+		command.add(script.toString());
+		File err = File.createTempFile("lox", ".err");
+		try {
+			Process process = new ProcessBuilder(command)
+				.redirectError(err).start();
+			String out = new String(process.getInputStream().readAllBytes(),
+				StandardCharsets.UTF_8);
+			int status = process.waitFor();
+			return new Run(out, Files.readString(err.toPath()), status);
+		} finally {
+			err.delete();
+		}
+	}
+
+	private static List<Path> scripts() throws IOException, URISyntaxException {
+		Path folder = Paths.get(ScriptTest.class.getResource("/scripts").toURI());
+		try (Stream<Path> files = Files.list(folder)) {
+			return files.filter(file -> file.toString().endsWith(".lox"))
+				.sorted().toList();
+		}
+	}
+
+	// the errors Lox.report printed, the lines a program prints can't
+	// start like that
+	private static String errors(String out) {
+		StringBuilder errors = new StringBuilder();
+		for (String line : out.split("\n")) {
+			if (line.startsWith("[line ")) errors.append(line).append('\n');
+		}
+		return errors.toString();
+	}
+
+	@Test
+	void scriptsPrintWhatTheyExpect() throws Exception {
+		for (Path script : scripts()) {
+			StringBuilder out = new StringBuilder();
+			String err = "";
+			StringBuilder syntaxErrors = new StringBuilder();
+			int status = 0;
+			List<String> engines = null;
+			List<String> lines = Files.readAllLines(script);
+			for (int i = 0; i < lines.size(); i++) {
+				String line = lines.get(i);
+				int expect = line.indexOf(EXPECT);
+				if (expect >= 0) {
+					out.append(line.substring(expect + EXPECT.length()))
+						.append('\n');
+				}
+				if (line.startsWith(ENGINES)) {
+					engines = Arrays.asList(line.substring(ENGINES.length())
+						.trim().split(" +"));
+				}
+				expect = line.indexOf(EXPECT_ERROR);
+				if (expect >= 0) {
+					err = line.substring(expect + EXPECT_ERROR.length()) +
+						"\n[line " + (i + 1) + "]\n";
+					status = 70;
+				}
+				expect = line.indexOf(EXPECT_SYNTAX_ERROR);
+				if (expect >= 0) {
+					syntaxErrors.append("[line ").append(i + 1).append("] ")
+						.append(line.substring(expect + EXPECT_SYNTAX_ERROR.length()))
+						.append('\n');
+					status = 65;
+				}
+			}
+			for (String[] options : OPTIONS) {
+				String engine = options[0].substring("--engine=".length());
+				if (engines != null && !engines.contains(engine)) continue;
+				String name = script.getFileName() + " " + String.join(" ", options);
+				Run run = run(script, options);
+				if (syntaxErrors.length() > 0) {
+					// "--lazy" runs the program until it calls the function
+					// with the error
+					assertEquals(syntaxErrors.toString(), errors(run.out), name);
+					assertEquals(status, run.status, name);
+					continue;
+				}
+				assertEquals(out.toString(), run.out, name);
+				assertEquals(err, run.err, name);
+				assertEquals(status, run.status, name);
+			}
+		}
+	}
+}
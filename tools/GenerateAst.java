@@ -13,26 +13,32 @@ public class GenerateAst {
 		}
 		String outputDir = args[0];
 		defineAst(outputDir, "Expr", Arrays.asList(
-			"Assign   : Token name, Expr value",
-			"Binary   : Expr left, Token operator, Expr right",
+			"Assign   : Token name, Expr value" +
+						" ; int depth = -1, int slot, int local = -1," +
+						" int upvalue = -1, Cell global",
+			"Binary   : Expr left, Token operator, Expr right" +
+						" ; LoxType operands",
 			"Call     : Expr callee, Token paren, List<Expr> arguments",
 			"Grouping : Expr expression",
 			"Literal  : Object value",
 			"Logical  : Expr left, Token operator, Expr right",
-			"Unary    : Token operator, Expr right",
-			"Variable : Token name"
+			"Unary    : Token operator, Expr right ; LoxType operand",
+			"Variable : Token name" +
+						" ; int depth = -1, int slot, int local = -1," +
+						" int upvalue = -1, Cell global, LoxType type"
 		));
 		defineAst(outputDir, "Stmt", Arrays.asList(
-			"Block      : List<Stmt> statements",
+			"Block      : List<Stmt> statements ; int slots, boolean[] cells",
 			"Expression : Expr expression",
 			"Function   : Token name, List<Token> params," +
-						" List<Stmt> body",
+						" List<Stmt> body ; int slots, LazyBody lazy," +
+						" int local = -1, boolean[] cells, int[] upvalues",
 			"If         : Expr condition, Stmt thenBranch," +
 						" Stmt elseBranch",
 			"Print      : Expr expression",
-			"Return     : Token keyword, Expr value",
-			"Var        : Token name, Expr initializer",
-			"While      : Expr condition, Stmt body"
+			"Return     : Token keyword, Expr value ; boolean tailCall",
+			"Var        : Token name, Expr initializer ; int local = -1",
+			"While      : Expr condition, Stmt body ; CountedLoop counted"
 			));
 	}
 
@@ -42,7 +48,7 @@ public class GenerateAst {
 		String path = outputDir + "/" + baseName + ".java";
 		PrintWriter writer = new PrintWriter(path, "UTF-8");
 
-		writer.println("package jlox.lox;");
+		writer.println("package lox;");
 		writer.println();
 		writer.println("import java.util.List;");
 		writer.println();
@@ -56,8 +62,14 @@ public class GenerateAst {
 			String[] type_splited = type.split(":");
 			// trim out spaces
 			String className = type_splited[0].trim();
-			String fields = type_splited[1].trim();
-			defineType(writer, baseName, className, fields);
+			// fields after ';' are not part of the constructor,
+			// they are filled in later by the Resolver and the passes
+			// after it
+			String[] field_groups = type_splited[1].split(";");
+			String fields = field_groups[0].trim();
+			String annotations = field_groups.length > 1
+				? field_groups[1].trim() : null;
+			defineType(writer, baseName, className, fields, annotations);
 		}
 
 		// The base accept() method.
@@ -82,7 +94,7 @@ public class GenerateAst {
 
 	private static void defineType(
 			PrintWriter writer, String baseName,
-			String className, String fieldList) {
+			String className, String fieldList, String annotationList) {
 		writer.println("	static class " + className + " extends " +
 				baseName + " {");
 
@@ -109,6 +121,13 @@ public class GenerateAst {
 		for (String field : fields) {
 			writer.println("		final " + field + ";");
 		}
+		if (annotationList != null) {
+			writer.println();
+			writer.println("		// analysis results, filled in after parsing");
+			for (String annotation : annotationList.split(", ")) {
+				writer.println("		" + annotation + ";");
+			}
+		}
 
 		writer.println("	}");
 	}